@@ -0,0 +1,79 @@
+package com.app.mirrorpage.server.tabel;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link CsvRowCodec} contra o que o código usava antes (split(";", -1) e
+ * String.join). Que os dois dão o mesmo resultado é conferido no
+ * CsvRowCodecTest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsvRowCodecBenchmark {
+
+    private String[] linhas;
+    private String[][] colunas;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        List<String> base = SheetBenchmark.gerarCsv(1000);
+        base.add("1;;curta");
+        base.add("");
+        base.add(";;;");
+        base.add("2;;vazias no fim;;;;");
+        linhas = base.toArray(String[]::new);
+        colunas = new String[linhas.length][];
+        for (int i = 0; i < linhas.length; i++) {
+            colunas[i] = linhas[i].split(";", -1);
+        }
+    }
+
+    @Benchmark
+    public void splitRegex(Blackhole bh) {
+        for (String l : linhas) {
+            bh.consume(l.split(";", -1));
+        }
+    }
+
+    @Benchmark
+    public void splitCodec(Blackhole bh) {
+        for (String l : linhas) {
+            bh.consume(CsvRowCodec.split(l));
+        }
+    }
+
+    @Benchmark
+    public String serializeJoin() {
+        StringBuilder sb = new StringBuilder(linhas.length * 64);
+        for (String[] c : colunas) {
+            sb.append(String.join(";", c)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public String serializeCodec() {
+        StringBuilder sb = new StringBuilder(linhas.length * 64);
+        for (String[] c : colunas) {
+            CsvRowCodec.appendTo(sb, c).append('\n');
+        }
+        return sb.toString();
+    }
+}
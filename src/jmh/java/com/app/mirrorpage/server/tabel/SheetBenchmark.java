@@ -0,0 +1,163 @@
+package com.app.mirrorpage.server.tabel;
+
+import com.app.mirrorpage.fs.PathResolver;
+import com.app.mirrorpage.server.service.LeaseIds;
+import com.app.mirrorpage.server.service.SheetEventBroadcaster;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+/**
+ * Operações do {@link SheetService} sobre um mirrorpage.root temporário com
+ * planilhas geradas de 100 / 1 000 / 10 000 linhas.
+ *
+ * Cada benchmark deixa a planilha do mesmo tamanho (ex.: insere e apaga), para
+ * que as medições não dependam de quantas vezes rodaram. Com "-prof gc" (o
+ * padrão do profile) o JMH mostra também a taxa de alocação.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SheetBenchmark {
+
+    private static final String PRELIM = "BENCH/Prelim.csv";
+    private static final String FINAL = "BENCH/Final.csv";
+    private static final String USER = "bench";
+
+    @Param({"100", "1000", "10000"})
+    public int rows;
+
+    @Param({"false", "true"})
+    public boolean wal;
+
+    private Path root;
+    private Path walDir;
+    private SheetCache cache;
+    private SheetService service;
+    private int meio;
+    private int valor;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("mirrorpage-bench");
+        walDir = Files.createTempDirectory("mirrorpage-bench-wal");
+        Files.createDirectories(root.resolve("BENCH"));
+        Files.write(root.resolve(PRELIM), gerarCsv(rows));
+
+        PathResolver resolver = new PathResolver(root.toString());
+        SheetStorage storage = new SheetStorage("none");
+        SheetWal sheetWal = new SheetWal(resolver, storage, wal, walDir.toString(), false, 1 << 20, 10_000);
+        sheetWal.recover();
+        SheetLocks sheetLocks = new SheetLocks();
+        cache = new SheetCache(sheetLocks, storage, sheetWal, 1000, 30, 500);
+        SheetEventBroadcaster broadcaster = new SheetEventBroadcaster(new SimpMessagingTemplate((m, t) -> true), 0, 0, "simple", 0);
+        // TTL longo: o lease não pode vencer no meio da medição
+        CellLockService cellLocks = new CellLockService(new InMemoryCellLockStore(new LeaseIds(), 3600), broadcaster);
+        service = new SheetService(resolver, broadcaster, cellLocks, cache, sheetLocks);
+
+        meio = rows / 2;
+        service.loadSheet(PRELIM); // carrega no cache
+        // save-cell/patch exigem a célula travada pelo usuário
+        cellLocks.acquireRange(PRELIM, meio, meio, 2, 13, USER);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        cache.shutdown();
+        apagar(root);
+        apagar(walDir);
+    }
+
+    @Benchmark
+    public void insertAndDeleteRow() throws Exception {
+        service.insertRow(PRELIM, meio, USER);
+        service.deleteRow(PRELIM, meio + 1, USER);
+    }
+
+    @Benchmark
+    public void moveRow() throws Exception {
+        // Primeira linha móvel -> penúltima e volta
+        service.moveRow(PRELIM, 1, rows - 1, USER);
+        service.moveRow(PRELIM, rows - 1, 1, USER);
+    }
+
+    @Benchmark
+    public void copyRowToFinal() throws IOException {
+        service.copyRowToFinal(PRELIM, meio, FINAL, USER);
+    }
+
+    @Benchmark
+    public void saveCell() throws IOException {
+        service.saveCell(PRELIM, meio, 2, "texto " + (valor++ & 1023), null, USER);
+    }
+
+    @Benchmark
+    public List<CellPatch> patchRow() throws IOException {
+        List<CellPatch> linha = new ArrayList<>(12);
+        String v = "lote " + (valor++ & 1023);
+        for (int col = 2; col < 14; col++) {
+            linha.add(new CellPatch(meio, col, v));
+        }
+        return service.patchCells(PRELIM, linha, USER);
+    }
+
+    /**
+     * Leitura sem alteração no meio: serve o texto já montado.
+     */
+    @Benchmark
+    public String loadSheet() throws IOException {
+        return service.loadSheet(PRELIM);
+    }
+
+    /**
+     * Leitura logo depois de uma edição: inclui remontar o texto completo.
+     */
+    @Benchmark
+    public String saveCellThenLoadSheet() throws IOException {
+        service.saveCell(PRELIM, meio, 2, "texto " + (valor++ & 1023), null, USER);
+        return service.loadSheet(PRELIM);
+    }
+
+    /*──────── Helpers ────────*/
+    static List<String> gerarCsv(int linhasMoveis) {
+        List<String> l = new ArrayList<>(linhasMoveis + 3);
+        l.add("PG;CNT;RETRANCA;APRESENTADOR;REPORTER;EDITOR;IMAGEM;TIPO;CABECA;VT;TOTAL;OBS;STATUS;PREVISTO");
+        l.add("0;;ABERTURA;;;;;;00:00;00:00;00:00;;;00:00:00");
+        for (int i = 1; i <= linhasMoveis; i++) {
+            l.add(i + ";;RETRANCA " + i + ";APRES;REP " + (i % 7) + ";ED;IMG;VT;00:15;01:30;01:45;;OK;00:00:00");
+        }
+        l.add(";;;;;;;;;;;;;");
+        return l;
+    }
+
+    private static void apagar(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
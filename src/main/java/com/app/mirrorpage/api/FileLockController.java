@@ -9,6 +9,7 @@ import com.app.mirrorpage.server.domain.user.User;
 import com.app.mirrorpage.server.service.FileLockService;
 import java.util.Map;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
@@ -16,18 +17,22 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 @RestController
 @RequestMapping("/api/lock/file")
 public class FileLockController {
 
     private final FileLockService lockService;
+    private final long maxWaitMs;
 
     @Autowired
     private SimpMessagingTemplate messagingTemplate; // O Carteiro do WebSocket
 
-    public FileLockController(FileLockService lockService) {
+    public FileLockController(FileLockService lockService,
+            @Value("${mirrorpage.lock.file-wait.max-wait-ms:60000}") long maxWaitMs) {
         this.lockService = lockService;
+        this.maxWaitMs = maxWaitMs;
     }
 
     @PostMapping("/lock")
@@ -45,13 +50,65 @@ public class FileLockController {
 
         if (success) {
             broadcastLockChange(path, user.getUsername(), true, false);
-            return ResponseEntity.ok(Map.of("granted", true, "owner", user.getUsername()));
+            return ResponseEntity.ok(Map.of("granted", true, "owner", user.getUsername(),
+                    "leaseId", lockService.getLeaseId(path)));
         } else {
-            String owner = lockService.getOwner(path);
-            return ResponseEntity.status(409).body(Map.of("granted", false, "owner", owner));
+            // Ocupado, ou livre mas com fila de espera (owner ausente)
+            return ResponseEntity.status(409).body(conflict(path, "Arquivo em uso"));
         }
     }
 
+    // --- LOCK COM ESPERA (long-poll) ---
+    // Body: {"path": "...", "timeoutMs": "30000"}. Se o arquivo está ocupado o
+    // pedido entra na fila FIFO e a resposta só volta quando o lock chega
+    // (200) ou o prazo acaba (409). Quem usa WebSocket também vê a passagem
+    // em /topic/locks.
+    @PostMapping("/lock/wait")
+    public DeferredResult<ResponseEntity<?>> lockAndWait(@RequestBody Map<String, String> body,
+            @AuthenticationPrincipal User user) {
+        long timeout = maxWaitMs;
+        String pedido = body.get("timeoutMs");
+        if (pedido != null) {
+            try {
+                timeout = Math.max(0, Math.min(Long.parseLong(pedido), maxWaitMs));
+            } catch (NumberFormatException e) {
+                // ignora: usa o máximo
+            }
+        }
+        DeferredResult<ResponseEntity<?>> resultado = new DeferredResult<>(timeout);
+
+        if (user == null) {
+            resultado.setResult(ResponseEntity.status(401).body(Map.of("message", "Usuário não autenticado.")));
+            return resultado;
+        }
+        String path = body.get("path");
+        if (path == null) {
+            resultado.setResult(ResponseEntity.badRequest().build());
+            return resultado;
+        }
+        String username = user.getUsername();
+
+        FileLockService.Waiter waiter = new FileLockService.Waiter(path, username,
+                leaseId -> resultado.setResult(ResponseEntity.ok(
+                        Map.of("granted", true, "owner", username, "leaseId", leaseId))));
+
+        switch (lockService.lockOrWait(waiter)) {
+            case GRANTED ->
+                broadcastLockChange(path, username, true, false);
+            case QUEUE_FULL ->
+                resultado.setResult(ResponseEntity.status(429).body(conflict(path, "Fila de espera cheia")));
+            case QUEUED -> {
+                resultado.onTimeout(() -> {
+                    lockService.cancelWait(waiter);
+                    resultado.setResult(ResponseEntity.status(409).body(conflict(path, "Tempo de espera esgotado")));
+                });
+                // Conexão caiu / resposta enviada: sai da fila (se ainda estiver)
+                resultado.onCompletion(() -> lockService.cancelWait(waiter));
+            }
+        }
+        return resultado;
+    }
+
     @PostMapping("/unlock")
     public ResponseEntity<?> unlock(@RequestBody Map<String, String> body, @AuthenticationPrincipal User user) {
         // 🛡️ PROTEÇÃO TAMBÉM NO UNLOCK
@@ -62,6 +119,8 @@ public class FileLockController {
         if (path != null) {
             lockService.unlock(path, user.getUsername());
             broadcastLockChange(path, null, false, true);
+            // Depois do aviso de "livre": o próximo da fila (se houver) assume
+            lockService.handOff(path);
         }
         return ResponseEntity.ok().build();
     }
@@ -83,6 +142,13 @@ public class FileLockController {
         return ResponseEntity.ok().build();
     }
 
+    private Map<String, Object> conflict(String path, String message) {
+        String owner = lockService.getOwner(path);
+        return (owner != null)
+                ? Map.of("granted", false, "owner", owner, "message", message)
+                : Map.of("granted", false, "message", message);
+    }
+
 // Atualize a assinatura do método auxiliar
     private void broadcastLockChange(String path, String owner, boolean locked, boolean contentChanged) {
         messagingTemplate.convertAndSend("/topic/locks",
@@ -0,0 +1,97 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.api;
+
+import com.app.mirrorpage.api.dto.LeaseHeartbeatRequest;
+import com.app.mirrorpage.api.dto.LeaseHeartbeatResponse;
+import com.app.mirrorpage.server.domain.user.User;
+import com.app.mirrorpage.server.service.ActiveUserManager;
+import com.app.mirrorpage.server.service.FileLockService;
+import com.app.mirrorpage.server.tabel.CellLockService;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.annotation.SendToUser;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/lease")
+public class LeaseController {
+
+    private final CellLockService cellLockService;
+    private final FileLockService fileLockService;
+    private final ActiveUserManager activeUserManager;
+    private final long ttlSeconds;
+
+    public LeaseController(CellLockService cellLockService, FileLockService fileLockService,
+            ActiveUserManager activeUserManager,
+            @Value("${mirrorpage.lease.ttl-seconds:30}") long ttlSeconds) {
+        this.cellLockService = cellLockService;
+        this.fileLockService = fileLockService;
+        this.activeUserManager = activeUserManager;
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    // Quantos locks vigentes / vencidos existem (célula e arquivo)
+    @GetMapping("/stats")
+    public Map<String, Object> stats() {
+        return Map.of(
+                "cells", cellLockService.stats(),
+                "files", fileLockService.stats());
+    }
+
+    // --- HEARTBEAT (REST) ---
+    // Renova de uma vez os leases pedidos; "lost" diz quais não voltam mais
+    @PostMapping("/heartbeat")
+    public ResponseEntity<?> heartbeat(@RequestBody(required = false) LeaseHeartbeatRequest req,
+            @AuthenticationPrincipal User user) {
+        if (user == null) {
+            return ResponseEntity.status(401).build();
+        }
+        return ResponseEntity.ok(renew(user.getUsername(), (req != null) ? req.ids() : null));
+    }
+
+    // --- HEARTBEAT (STOMP: /app/lease/renew -> /user/queue/lease) ---
+    // Mesmo efeito, pela conexão WebSocket já aberta; o usuário vem da sessão.
+    // A resposta (com "lost") vai só para a sessão que pediu
+    @MessageMapping("/lease/renew")
+    @SendToUser(destinations = "/queue/lease", broadcast = false)
+    public LeaseHeartbeatResponse renewOverWebSocket(@Payload(required = false) LeaseHeartbeatRequest req,
+            SimpMessageHeaderAccessor headers) {
+        String username = activeUserManager.getUser(headers.getSessionId());
+        if (username == null) {
+            return null; // sessão sem login-user no CONNECT: sem resposta
+        }
+        return renew(username, (req != null) ? req.ids() : null);
+    }
+
+    /*──────── Helpers ────────*/
+    private LeaseHeartbeatResponse renew(String username, List<Long> ids) {
+        Set<Long> pedidos = (ids != null) ? new HashSet<>(ids) : Set.of();
+        if (pedidos.isEmpty()) {
+            // Só renova o que a aba manda: sem ids, nada (nem os leases de
+            // outra aba do mesmo usuário, que pode ter caído)
+            return new LeaseHeartbeatResponse(Set.of(), Set.of(), ttlSeconds);
+        }
+
+        Set<Long> renovados = new HashSet<>(cellLockService.renew(username, pedidos));
+        renovados.addAll(fileLockService.renew(username, pedidos));
+
+        Set<Long> perdidos = new HashSet<>(pedidos);
+        perdidos.removeAll(renovados);
+        return new LeaseHeartbeatResponse(renovados, perdidos, ttlSeconds);
+    }
+}
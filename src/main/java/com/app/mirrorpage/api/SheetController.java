@@ -3,24 +3,33 @@ package com.app.mirrorpage.api;
 import com.app.mirrorpage.api.dto.DeleteRowRequest;
 import com.app.mirrorpage.api.dto.MoveRowRequest;
 import com.app.mirrorpage.api.dto.PromoteRequest;
-import com.app.mirrorpage.fs.PathResolver;
 import com.app.mirrorpage.server.domain.user.User; // 1. Importe sua entidade User
 import com.app.mirrorpage.server.service.SheetEventBroadcaster;
 import com.app.mirrorpage.server.tabel.CellLock;
+import com.app.mirrorpage.server.tabel.CellLockConflict;
 import com.app.mirrorpage.server.tabel.CellLockRequest;
 import com.app.mirrorpage.server.tabel.CellLockResponse;
 import com.app.mirrorpage.server.tabel.CellLockService;
+import com.app.mirrorpage.server.tabel.CellLockStore;
+import com.app.mirrorpage.server.tabel.CellRangeRequest;
 import com.app.mirrorpage.server.tabel.CellSaveRequest;
-import com.app.mirrorpage.server.tabel.SheetCellChangeEvent;
-import com.app.mirrorpage.server.tabel.SheetRowInsertedEvent;
+import com.app.mirrorpage.server.tabel.SheetChanges;
+import com.app.mirrorpage.server.tabel.SheetModel;
+import com.app.mirrorpage.server.tabel.SheetPatchRequest;
+import com.app.mirrorpage.server.tabel.SheetLocksSnapshot;
+import com.app.mirrorpage.server.tabel.SheetReplay;
+import com.app.mirrorpage.server.tabel.SheetReplayRequest;
 import com.app.mirrorpage.server.tabel.SheetService;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.annotation.SendToUser;
 import org.springframework.security.core.annotation.AuthenticationPrincipal; // 2. Importe a anotação
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -28,21 +37,19 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 @RestController
 @RequestMapping("/api/sheet")
 public class SheetController {
 
-    private final PathResolver resolver;
     private final CellLockService lockService;
     private final SheetService sheetService;
     private final SheetEventBroadcaster sheetEventBroadcaster;
 
-    public SheetController(CellLockService lockService,
-            PathResolver resolver, SheetService sheetService,
+    public SheetController(CellLockService lockService, SheetService sheetService,
             SheetEventBroadcaster sheetEventBroadcaster) {
         this.lockService = lockService;
-        this.resolver = resolver;
         this.sheetService = sheetService;
         this.sheetEventBroadcaster = sheetEventBroadcaster;
     }
@@ -71,7 +78,7 @@ public class SheetController {
         }
 
         return ResponseEntity.ok(new CellLockResponse(
-                lock.path, lock.row, lock.col, lock.owner, lock.expiresAt
+                lock.path, lock.row, lock.col, lock.owner, lock.expiresAt, lock.leaseId
         ));
     }
 
@@ -97,6 +104,74 @@ public class SheetController {
         return ResponseEntity.ok().build();
     }
 
+    // --- LOCKS DA PLANILHA (estado inicial; depois seguem os eventos do tópico) ---
+    @GetMapping("/locks")
+    public SheetLocksSnapshot locks(@RequestParam("path") String path) {
+        return lockService.snapshot(path);
+    }
+
+    // --- LOCK EM LOTE (linha, intervalo de linhas ou retângulo) ---
+    @PostMapping("/lock/batch")
+    public ResponseEntity<?> lockBatch(@RequestBody CellRangeRequest req,
+            @AuthenticationPrincipal User user) {
+
+        if (user == null) {
+            return ResponseEntity.status(401).build();
+        }
+        String username = user.getUsername();
+
+        try {
+            CellLockStore.BatchLock result = sheetService.lockRange(req, username);
+            if (!result.ok()) {
+                System.out.printf("[LOCK] LOTE RECUSADO path=%s rows=%d..%s conflitos=%d requisitante=%s%n",
+                        req.path(), req.fromRow(), req.toRow(), result.conflicts().size(), username);
+
+                record BatchConflictResponse(String message, List<CellLockConflict> conflicts) {
+
+                }
+                return ResponseEntity.status(409)
+                        .body(new BatchConflictResponse("Cells already locked", result.conflicts()));
+            }
+
+            List<CellLockResponse> granted = new ArrayList<>(result.granted().size());
+            for (CellLock lock : result.granted()) {
+                granted.add(new CellLockResponse(lock.path, lock.row, lock.col, lock.owner, lock.expiresAt, lock.leaseId));
+            }
+            return ResponseEntity.ok(granted);
+
+        } catch (NoSuchFileException ex) {
+            return ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body(ex.getMessage());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            return ResponseEntity.internalServerError().body("Erro ao travar células");
+        }
+    }
+
+    // --- UNLOCK EM LOTE (só as células do próprio usuário) ---
+    @PostMapping("/unlock/batch")
+    public ResponseEntity<?> unlockBatch(@RequestBody CellRangeRequest req,
+            @AuthenticationPrincipal User user) {
+
+        if (user == null) {
+            return ResponseEntity.status(401).build();
+        }
+
+        try {
+            List<CellLock> liberados = sheetService.unlockRange(req, user.getUsername());
+            return ResponseEntity.ok(Map.of("released", liberados.size()));
+
+        } catch (NoSuchFileException ex) {
+            return ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body(ex.getMessage());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            return ResponseEntity.internalServerError().body("Erro ao liberar células");
+        }
+    }
+
     // --- SAVE CELL ---
     @PostMapping("/save-cell")
     public ResponseEntity<?> saveCell(@RequestBody CellSaveRequest req,
@@ -114,62 +189,105 @@ public class SheetController {
                 req.path(), modelRow, col, username, req.value());
 
         try {
-            Path filePath = resolver.resolveSafe(req.path());
-            if (!Files.exists(filePath)) {
-                return ResponseEntity.notFound().build();
-            }
-
-            List<String> linhas = Files.readAllLines(filePath, StandardCharsets.UTF_8);
-            int fileRow = modelRow + 1; // Pula cabeçalho
-
-            if (fileRow < 0 || fileRow >= linhas.size()) {
-                return ResponseEntity.badRequest().body("Row out of bounds");
-            }
-
-            // Lógica de manipulação do CSV (Mantida igual a sua)
-            String linha = linhas.get(fileRow);
-            String sep = ";";
-            String[] cols = linha.split(java.util.regex.Pattern.quote(sep), -1);
-
-            if (col < 0) {
-                return ResponseEntity.badRequest().body("Col out of bounds");
-            }
-            if (col >= cols.length) {
-                // Expande array
-                String[] novo = new String[col + 1];
-                System.arraycopy(cols, 0, novo, 0, cols.length);
-                for (int i = cols.length; i < novo.length; i++) {
-                    novo[i] = "";
-                }
-                cols = novo;
-            }
+            sheetService.saveCell(req.path(), modelRow, col, req.value(), req.token(), username);
+            return ResponseEntity.ok().build();
 
-            cols[col] = (req.value() != null) ? req.value() : "";
-            linhas.set(fileRow, String.join(sep, cols));
-            Files.write(filePath, linhas, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException ex) {
+            return ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body(ex.getMessage());
+        } catch (IllegalStateException ex) {
+            return ResponseEntity.status(409).body(ex.getMessage());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            return ResponseEntity.internalServerError().body("Erro ao salvar célula");
+        }
+    }
 
-            // 🔔 Broadcaster: Passamos o nome limpo (username), não o objeto User
-            SheetCellChangeEvent evt = new SheetCellChangeEvent(
-                    req.path(), modelRow, col, cols[col], username
-            );
-            sheetEventBroadcaster.sendCellChange(evt);
+    // --- PATCH (várias células de uma vez) ---
+    @PostMapping("/patch")
+    public ResponseEntity<?> patch(@RequestBody SheetPatchRequest req,
+            @AuthenticationPrincipal User user) {
 
-            return ResponseEntity.ok().build();
+        if (user == null) {
+            return ResponseEntity.status(401).build();
+        }
+        String username = user.getUsername();
 
+        try {
+            return ResponseEntity.ok(sheetService.patchCells(req.path(), req.changes(), username));
+
+        } catch (NoSuchFileException ex) {
+            return ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body(ex.getMessage());
+        } catch (IllegalStateException ex) {
+            // Alguma célula sem lock do usuário ou com token vencido: nada
+            // foi aplicado
+            return ResponseEntity.status(409).body(ex.getMessage());
         } catch (Exception ex) {
             ex.printStackTrace();
-            return ResponseEntity.internalServerError().body("Erro ao salvar célula");
+            return ResponseEntity.internalServerError().body("Erro ao salvar células");
         }
     }
 
     // --- OUTROS MÉTODOS (LOAD, INSERT, MOVE, DELETE) ---
     // Mantém a lógica, mas idealmente use @AuthenticationPrincipal também
     @GetMapping
-    public ResponseEntity<String> loadSheet(@RequestParam("path") String path) throws IOException {
+    public ResponseEntity<String> loadSheet(@RequestParam("path") String path,
+            WebRequest request) throws IOException {
         String relPath = path.replaceFirst("^[\\\\/]+", "");
+        SheetModel.Snapshot snap = sheetService.loadSnapshot(relPath);
+        if (snap == null) {
+            return ResponseEntity.ok()
+                    .contentType(MediaType.TEXT_PLAIN)
+                    .body("");
+        }
+
+        // If-None-Match com a versão atual -> 304 sem corpo
+        String etag = "\"" + snap.version() + "\"";
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
         return ResponseEntity.ok()
                 .contentType(MediaType.TEXT_PLAIN)
-                .body(sheetService.loadSheet(relPath));
+                .eTag(etag)
+                .body(snap.text());
+    }
+
+    /**
+     * Delta sync: o que mudou desde a versão "since" (a mesma do ETag e dos
+     * eventos). Sem histórico suficiente, volta o texto completo (full=true).
+     */
+    @GetMapping("/changes")
+    public ResponseEntity<?> changes(@RequestParam("path") String path,
+            @RequestParam(value = "since", required = false) String since) throws IOException {
+        String relPath = path.replaceFirst("^[\\\\/]+", "");
+        // Aceita a versão também no formato do ETag ("..." ou W/"...")
+        String versao = (since != null) ? since.replaceFirst("^W/", "").replace("\"", "") : null;
+        SheetChanges changes = sheetService.changesSince(relPath, versao);
+        if (changes == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(changes);
+    }
+
+    /**
+     * Replay dos eventos do tópico da planilha depois do seq "after" (header
+     * "seq" das mensagens). full=true: o buffer não alcança, recarregue.
+     */
+    @GetMapping("/replay")
+    public SheetReplay replay(@RequestParam("path") String path,
+            @RequestParam("after") long after) {
+        return sheetEventBroadcaster.replay(path, after);
+    }
+
+    // --- REPLAY (STOMP: /app/sheet/replay -> /user/queue/sheet-replay) ---
+    // Mesma resposta, só para a sessão que pediu
+    @MessageMapping("/sheet/replay")
+    @SendToUser(destinations = "/queue/sheet-replay", broadcast = false)
+    public SheetReplay replayOverWebSocket(@Payload SheetReplayRequest req) {
+        return sheetEventBroadcaster.replay(req.path(), req.afterSeq());
     }
 
     @PostMapping("/row/insert")
@@ -227,21 +345,10 @@ public class SheetController {
         }
 
         try {
-            // Chama o seu SheetService atualizado
-            // Chama o serviço (que incrementa no Prelim e copia para o Final)
+            // Chama o serviço (que incrementa no Prelim, copia para o Final e
+            // avisa as duas planilhas com a versão nova de cada uma)
             sheetService.copyRowToFinal(req.sourcePath(), req.sourceRow(), req.targetPath(), user.getUsername());
 
-            // 1. AVISA O FINAL (Destino)
-            // Quem estiver olhando o Final vai ver a linha aparecer/atualizar
-            SheetRowInsertedEvent eventoFinal = new SheetRowInsertedEvent(req.targetPath(), req.sourceRow(), user.getUsername());
-            sheetEventBroadcaster.sendRowInserted(eventoFinal);
-
-            // 2. AVISA O PRELIM (Origem)  <-- ADICIONE ISTO
-            // Quem estiver olhando o Prelim precisa ver o contador subir (ex: de 3 para 4)
-            // Ao enviar RowInserted na mesma linha, o frontend recarrega a linha com o valor novo
-            SheetRowInsertedEvent eventoPrelim = new SheetRowInsertedEvent(req.sourcePath(), req.sourceRow(), user.getUsername());
-            sheetEventBroadcaster.sendRowInserted(eventoPrelim);
-
             return ResponseEntity.ok().build();
 
         } catch (IllegalStateException e) {
@@ -0,0 +1,40 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.api;
+
+import com.app.mirrorpage.server.config.CompactWireFormat;
+import com.app.mirrorpage.server.config.SlowConsumerGuard;
+import com.app.mirrorpage.server.config.WsTransportStats;
+import java.util.List;
+import java.util.Map;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/ws")
+public class WsStatsController {
+
+    private final SlowConsumerGuard slowConsumerGuard;
+    private final CompactWireFormat compactWireFormat;
+
+    public WsStatsController(SlowConsumerGuard slowConsumerGuard, CompactWireFormat compactWireFormat) {
+        this.slowConsumerGuard = slowConsumerGuard;
+        this.compactWireFormat = compactWireFormat;
+    }
+
+    // Sessões abertas, mensagens descartadas e quedas por cliente lento
+    @GetMapping("/stats")
+    public WsTransportStats stats() {
+        return slowConsumerGuard.stats();
+    }
+
+    // Formato compacto: nome dos números de usuário (?ids=3,5 -> {"3":"maria"})
+    @GetMapping("/ids")
+    public Map<String, String> ids(@RequestParam("ids") List<Integer> ids) {
+        return compactWireFormat.names(ids);
+    }
+}
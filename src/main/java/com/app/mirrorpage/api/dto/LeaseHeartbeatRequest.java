@@ -0,0 +1,13 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.api.dto;
+
+import java.util.List;
+
+public record LeaseHeartbeatRequest(
+        List<Long> ids // leaseIds a renovar (só os desta aba); vazio/null = nenhum
+        ) {
+
+}
@@ -0,0 +1,15 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.api.dto;
+
+import java.util.Set;
+
+public record LeaseHeartbeatResponse(
+        Set<Long> renewed, // renovados (célula + arquivo)
+        Set<Long> lost,    // pedidos que já não são do usuário: travar de novo
+        long ttlSeconds    // prazo concedido; mande o próximo heartbeat antes
+        ) {
+
+}
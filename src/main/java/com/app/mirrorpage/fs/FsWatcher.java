@@ -4,6 +4,7 @@
  */
 package com.app.mirrorpage.fs;
 
+import com.app.mirrorpage.server.tabel.SheetStorage;
 import jakarta.annotation.PostConstruct;
 import java.io.IOException;
 import java.nio.file.FileSystems;
@@ -57,6 +58,11 @@ public class FsWatcher {
                         continue;
                     }
 
+                    // Temporários da gravação atômica das planilhas
+                    if (SheetStorage.isTempFile(changed)) {
+                        continue;
+                    }
+
                     if (Files.isDirectory(changed) && kind == StandardWatchEventKinds.ENTRY_CREATE) {
                         registerAll(changed, watcher); // monitora novas subpastas (exceto laudas, pois o filtro acima já barrou)
                     }
@@ -5,15 +5,16 @@
 package com.app.mirrorpage.fs;
 
 import com.app.mirrorpage.api.dto.TreeNodeDto;
+import com.app.mirrorpage.server.tabel.SheetCache;
+import com.app.mirrorpage.server.tabel.SheetLocks;
+import com.app.mirrorpage.server.tabel.SheetStorage;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.LinkOption;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -26,9 +27,16 @@ public class TreeService {
 
     @Autowired
     private final PathResolver resolver;
+    private final SheetCache sheetCache;
+    private final SheetLocks sheetLocks;
+    private final SheetStorage storage;
 
-    public TreeService(PathResolver resolver) {
+    public TreeService(PathResolver resolver, SheetCache sheetCache, SheetLocks sheetLocks,
+            SheetStorage storage) {
         this.resolver = resolver;
+        this.sheetCache = sheetCache;
+        this.sheetLocks = sheetLocks;
+        this.storage = storage;
     }
 
     public List<TreeNodeDto> list(String apiPath) throws IOException {
@@ -45,6 +53,10 @@ public class TreeService {
                 if (name.equalsIgnoreCase("laudas")) {
                     continue;
                 }
+                // Temporário de gravação de planilha em andamento
+                if (SheetStorage.isTempFile(p)) {
+                    continue;
+                }
                 boolean isDir = Files.isDirectory(p);
                 BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
                 long size = isDir ? 0L : attrs.size();
@@ -81,14 +93,14 @@ public class TreeService {
         }
         Files.createDirectories(parent);
 
-        // Escreve o conteúdo (cria ou trunca)
-        Files.writeString(
-                target,
-                content == null ? "" : content,
-                StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.TRUNCATE_EXISTING
-        );
+        // Descarta a versão em memória e grava de uma vez só: ninguém recarrega
+        // o CSV antigo (ou pela metade) entre as duas coisas
+        try (SheetLocks.Held io = sheetLocks.io(target);
+                SheetLocks.Held lock = sheetLocks.write(target)) {
+            sheetCache.evict(target);
+            // Temporário + fsync + rename atômico (cria ou substitui)
+            storage.write(target, content == null ? "" : content);
+        }
     }
 
     /**
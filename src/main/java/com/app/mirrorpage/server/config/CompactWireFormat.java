@@ -0,0 +1,278 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.config;
+
+import com.app.mirrorpage.server.service.SheetEventBroadcaster;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+
+/**
+ * Formato compacto dos eventos de planilha, negociado no CONNECT com o header
+ * "wire-format: compact". Quem não pede continua recebendo o JSON de sempre.
+ *
+ * Em vez do record inteiro, cada evento vira um array posicional; o path sai
+ * (já está no tópico) e usuários viram números:
+ *
+ * <pre>
+ * SheetCellChangeEvent   ["C", row, col, value, user#, version]
+ * SheetCellsChangedEvent ["P", [[row, col, value(, token)]...], user#, version]
+ * SheetRowInsertedEvent  ["I", afterRow, user#, version]
+ * RowMoveEvent           ["M", from, to, user#, version]
+ * RowDeletedEvent        ["D", modelRow, user#, version]
+ * CellLockEvent          ["L", row, col, owner#, locked]
+ * CellLocksEvent         ["K", owner#, locked, [[row, col]...]]
+ * SheetEventBatch        ["B", batch, [evento compacto...]]
+ * </pre>
+ *
+ * Os números são do servidor inteiro e nunca mudam (0 = sem usuário). Cada
+ * sessão recebe o significado de um número uma única vez, no header "ids"
+ * ({"3":"maria"}) do primeiro frame que o usa. O número é marcado como
+ * conhecido antes da entrega, então esse frame não pode se perder: o
+ * {@link SlowConsumerGuard} nunca descarta frame com "ids" (derruba a sessão,
+ * e a sessão nova começa do zero). Para qualquer outro caso o cliente
+ * resolve um número desconhecido em GET /api/ws/ids ({@link #names}).
+ * Frames compactos saem com
+ * content-type application/x-mirrorpage-compact+json; tipos fora da tabela
+ * (e o replay) continuam em JSON.
+ *
+ * O broker manda o mesmo payload para todas as sessões do tópico: a
+ * conversão é feita uma vez por mensagem e reaproveitada.
+ */
+@Component
+public class CompactWireFormat implements ChannelInterceptor {
+
+    public static final String FORMAT_HEADER = "wire-format";
+    public static final String IDS_HEADER = "ids";
+    public static final MimeType COMPACT_TYPE = MimeType.valueOf("application/x-mirrorpage-compact+json");
+
+    private static final int CACHE_SIZE = 64;
+
+    private final ObjectMapper mapper;
+    private final boolean enabled;
+
+    // Nomes internados (usuários/donos de lock)
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<Integer, String> byId = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    // sessionId -> números que a sessão já conhece
+    private final Map<String, Set<Integer>> sessions = new ConcurrentHashMap<>();
+
+    // Últimas conversões, pela identidade do payload original
+    private final Object[] cacheKeys = new Object[CACHE_SIZE];
+    private final Encoded[] cacheValues = new Encoded[CACHE_SIZE];
+    private int cacheNext;
+
+    public CompactWireFormat(ObjectMapper mapper,
+            @Value("${mirrorpage.ws.compact-enabled:true}") boolean enabled) {
+        this.mapper = mapper;
+        this.enabled = enabled;
+    }
+
+    private record Encoded(byte[] bytes, Map<Integer, String> names) {
+    }
+
+    /*──────── Entrada (clientInboundChannel): CONNECT / DISCONNECT ────────*/
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (sessionId == null) {
+            return message;
+        }
+        if (type == SimpMessageType.CONNECT) {
+            StompHeaderAccessor acc = StompHeaderAccessor.wrap(message);
+            if (enabled && "compact".equalsIgnoreCase(acc.getFirstNativeHeader(FORMAT_HEADER))) {
+                sessions.put(sessionId, new HashSet<>());
+            }
+        } else if (type == SimpMessageType.DISCONNECT) {
+            // Também chega quando a conexão cai sem DISCONNECT do cliente
+            sessions.remove(sessionId);
+        }
+        return message;
+    }
+
+    /**
+     * Interceptor do clientOutboundChannel: troca o payload dos MESSAGE de
+     * planilha para as sessões compactas.
+     */
+    public ChannelInterceptor outbound() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                return toCompact(message);
+            }
+        };
+    }
+
+    /**
+     * Nome de cada número pedido (os desconhecidos ficam de fora), no mesmo
+     * formato do header "ids".
+     */
+    public Map<String, String> names(Collection<Integer> wanted) {
+        Map<String, String> out = new LinkedHashMap<>();
+        for (Integer id : wanted) {
+            String name = (id != null) ? byId.get(id) : null;
+            if (name != null) {
+                out.put(String.valueOf(id), name);
+            }
+        }
+        return out;
+    }
+
+    /*──────── Saída: MESSAGE para sessão compacta ────────*/
+    private Message<?> toCompact(Message<?> message) {
+        if (sessions.isEmpty()
+                || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+            return message;
+        }
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        Set<Integer> known = (sessionId != null) ? sessions.get(sessionId) : null;
+        String dest = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (known == null || dest == null || !dest.startsWith("/topic/sheet/")
+                || !(message.getPayload() instanceof byte[])) {
+            return message;
+        }
+        Encoded enc = encoded(message);
+        if (enc == null) {
+            return message; // tipo sem forma compacta
+        }
+        // Cópia dos headers (o original é o mesmo para todas as sessões)
+        SimpMessageHeaderAccessor acc = SimpMessageHeaderAccessor.wrap(message);
+
+        Map<String, String> novos = new LinkedHashMap<>();
+        synchronized (known) {
+            enc.names().forEach((id, name) -> {
+                if (known.add(id)) {
+                    novos.put(String.valueOf(id), name);
+                }
+            });
+        }
+        acc.setContentType(COMPACT_TYPE);
+        if (!novos.isEmpty()) {
+            try {
+                acc.setNativeHeader(IDS_HEADER, mapper.writeValueAsString(novos));
+            } catch (Exception e) {
+                return message;
+            }
+        }
+        acc.setLeaveMutable(true);
+        return MessageBuilder.createMessage(enc.bytes(), acc.getMessageHeaders());
+    }
+
+    private Encoded encoded(Message<?> message) {
+        Object payload = message.getPayload();
+        synchronized (cacheKeys) {
+            for (int i = 0; i < CACHE_SIZE; i++) {
+                if (cacheKeys[i] == payload) {
+                    return cacheValues[i];
+                }
+            }
+        }
+        Encoded enc = null;
+        try {
+            String type = SimpMessageHeaderAccessor.wrap(message)
+                    .getFirstNativeHeader(SheetEventBroadcaster.EVENT_HEADER);
+            Map<Integer, String> names = new LinkedHashMap<>();
+            JsonNode out = (type != null) ? encode(type, mapper.readTree((byte[]) payload), names) : null;
+            if (out != null) {
+                enc = new Encoded(mapper.writeValueAsBytes(out), names);
+            }
+        } catch (Exception e) {
+            System.out.println("[WS] Falha ao compactar evento: " + e.getMessage());
+        }
+        synchronized (cacheKeys) {
+            cacheKeys[cacheNext] = payload;
+            cacheValues[cacheNext] = enc; // null também: não tenta de novo
+            cacheNext = (cacheNext + 1) % CACHE_SIZE;
+        }
+        return enc;
+    }
+
+    /*──────── Codificação ────────*/
+    private ArrayNode encode(String type, JsonNode n, Map<Integer, String> names) {
+        ArrayNode a = mapper.createArrayNode();
+        switch (type) {
+            case "SheetCellChangeEvent" ->
+                a.add("C").add(n.path("row").asInt()).add(n.path("col").asInt())
+                        .add(n.path("value").asText(null))
+                        .add(intern(n.path("user"), names)).add(n.path("version").asText(null));
+            case "SheetCellsChangedEvent" -> {
+                ArrayNode cells = mapper.createArrayNode();
+                for (JsonNode c : n.path("changes")) {
+                    ArrayNode cell = cells.addArray()
+                            .add(c.path("row").asInt()).add(c.path("col").asInt())
+                            .add(c.path("value").asText(null));
+                    if (c.hasNonNull("token")) {
+                        cell.add(c.get("token").asLong());
+                    }
+                }
+                a.add("P").add(cells).add(intern(n.path("user"), names)).add(n.path("version").asText(null));
+            }
+            case "SheetRowInsertedEvent" ->
+                a.add("I").add(n.path("afterRow").asInt())
+                        .add(intern(n.path("user"), names)).add(n.path("version").asText(null));
+            case "RowMoveEvent" ->
+                a.add("M").add(n.path("from").asInt()).add(n.path("to").asInt())
+                        .add(intern(n.path("user"), names)).add(n.path("version").asText(null));
+            case "RowDeletedEvent" ->
+                a.add("D").add(n.path("modelRow").asInt())
+                        .add(intern(n.path("user"), names)).add(n.path("version").asText(null));
+            case "CellLockEvent" ->
+                a.add("L").add(n.path("row").asInt()).add(n.path("col").asInt())
+                        .add(intern(n.path("owner"), names)).add(n.path("locked").asBoolean());
+            case "CellLocksEvent" ->
+                a.add("K").add(intern(n.path("owner"), names)).add(n.path("locked").asBoolean())
+                        .add(n.path("cells"));
+            case "SheetEventBatch" -> {
+                ArrayNode evs = mapper.createArrayNode();
+                for (JsonNode e : n.path("events")) {
+                    ArrayNode c = encode(e.path("type").asText(), e.path("event"), names);
+                    if (c == null) {
+                        return null; // lote com tipo desconhecido: vai inteiro em JSON
+                    }
+                    evs.add(c);
+                }
+                a.add("B").add(n.path("batch").asLong()).add(evs);
+            }
+            default -> {
+                return null;
+            }
+        }
+        return a;
+    }
+
+    private int intern(JsonNode name, Map<Integer, String> names) {
+        if (name == null || name.isNull() || name.isMissingNode()) {
+            return 0;
+        }
+        String s = name.asText();
+        int id = ids.computeIfAbsent(s, k -> {
+            int novo = nextId.incrementAndGet();
+            byId.put(novo, k);
+            return novo;
+        });
+        names.put(id, s);
+        return id;
+    }
+}
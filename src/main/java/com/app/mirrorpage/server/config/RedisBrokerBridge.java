@@ -0,0 +1,228 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.config;
+
+import com.app.mirrorpage.server.service.SheetEventBroadcaster;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeType;
+
+/**
+ * Ponte Redis pub/sub entre os nós (mirrorpage.ws.broker=redis).
+ *
+ * Cada nó continua com o simple broker local. Tudo o que o servidor publica
+ * em /topic (planilhas, árvore, locks de arquivo) passa por este interceptor
+ * do brokerChannel e vai também para o canal Redis; os outros nós recebem e
+ * entregam aos seus clientes.
+ *
+ * Frames de planilha entram pelo {@link SheetEventBroadcaster} do nó que
+ * recebe: ganham o "seq" local e vão para o buffer de replay, então o cliente
+ * continua vendo uma sequência sem buracos qualquer que seja o nó.
+ *
+ * O interceptor roda com o monitor do tópico da planilha: ele só põe a
+ * mensagem numa fila (mirrorpage.ws.redis-publish-queue) e uma thread única
+ * publica no Redis, na mesma ordem. Do outro lado, outra thread única entrega
+ * na ordem em que chegou. Cada envelope leva um contador do nó de origem
+ * ("n"); se faltar algum (fila cheia, Redis fora), o nó que recebe invalida o
+ * replay das planilhas ({@link SheetEventBroadcaster#invalidateReplay()}) e os
+ * clientes recarregam em vez de ficar sem o evento.
+ */
+@Configuration
+@ConditionalOnProperty(name = "mirrorpage.ws.broker", havingValue = "redis")
+public class RedisBrokerBridge implements ChannelInterceptor, MessageListener {
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final StringRedisTemplate redis;
+    private final ObjectMapper mapper;
+    private final MessageChannel brokerChannel;
+    private final SheetEventBroadcaster sheetEventBroadcaster;
+    private final String channel;
+
+    // Saída: fila limitada + uma thread (mantém a ordem)
+    private final ThreadPoolExecutor publisher;
+    private final AtomicLong published = new AtomicLong(); // "n" do envelope
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Entrada: uma thread, na ordem do Redis; último "n" visto de cada nó
+    private final ExecutorService receiver;
+    private final Map<String, Long> lastFromNode = new ConcurrentHashMap<>();
+
+    // @Lazy: o brokerChannel e o broadcaster dependem do próprio
+    // WebSocketConfig, que depende desta ponte
+    public RedisBrokerBridge(StringRedisTemplate redis, ObjectMapper mapper,
+            @Lazy @Qualifier("brokerChannel") MessageChannel brokerChannel,
+            @Lazy SheetEventBroadcaster sheetEventBroadcaster,
+            @Value("${mirrorpage.ws.redis-channel:mirrorpage:ws}") String channel,
+            @Value("${mirrorpage.ws.redis-publish-queue:10000}") int publishQueue) {
+        this.redis = redis;
+        this.mapper = mapper;
+        this.brokerChannel = brokerChannel;
+        this.sheetEventBroadcaster = sheetEventBroadcaster;
+        this.channel = channel;
+        this.publisher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(publishQueue), r -> {
+                    Thread t = new Thread(r, "mirrorpage-ws-bridge-out");
+                    t.setDaemon(true);
+                    return t;
+                }, (r, ex) -> {
+                    // Fila cheia: gasta um "n" para os outros nós verem o buraco
+                    published.incrementAndGet();
+                    if (dropped.incrementAndGet() % 1000 == 1) {
+                        System.out.println("[WS BRIDGE] Fila de publicação cheia: "
+                                + dropped.get() + " mensagens não foram para os outros nós");
+                    }
+                });
+        this.receiver = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "mirrorpage-ws-bridge-in");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Bean
+    public RedisMessageListenerContainer wsBridgeListenerContainer(RedisConnectionFactory factory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        // O padrão é uma thread nova por mensagem, que embaralha a ordem
+        container.setTaskExecutor(receiver);
+        container.addMessageListener(this, new ChannelTopic(channel));
+        return container;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        publisher.shutdown();
+        try {
+            publisher.awaitTermination(2, TimeUnit.SECONDS); // o que ainda estava na fila
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        receiver.shutdownNow();
+    }
+
+    /*──────── Saída: brokerChannel -> Redis ────────*/
+    @Override
+    public org.springframework.messaging.Message<?> preSend(org.springframework.messaging.Message<?> message,
+            MessageChannel ch) {
+        SimpMessageHeaderAccessor acc = SimpMessageHeaderAccessor.wrap(message);
+        String dest = acc.getDestination();
+        if (acc.getMessageType() != SimpMessageType.MESSAGE || dest == null || !dest.startsWith("/topic/")
+                || acc.getHeader(SheetEventBroadcaster.RELAYED_HEADER) != null) {
+            return message;
+        }
+        byte[] body = (message.getPayload() instanceof byte[] b) ? b
+                : String.valueOf(message.getPayload()).getBytes(StandardCharsets.UTF_8);
+        Map<String, Object> env = new HashMap<>();
+        env.put("node", nodeId);
+        env.put("dest", dest);
+        MimeType type = acc.getContentType();
+        if (type != null) {
+            env.put("type", type.toString());
+        }
+        Map<String, List<String>> nativeHeaders = acc.toNativeHeaderMap();
+        if (!nativeHeaders.isEmpty()) {
+            env.put("headers", nativeHeaders);
+        }
+        env.put("body", Base64.getEncoder().encodeToString(body));
+        publisher.execute(() -> publish(dest, env));
+        return message;
+    }
+
+    // Thread da ponte: numera e publica, na ordem da fila
+    private void publish(String dest, Map<String, Object> env) {
+        env.put("n", published.incrementAndGet());
+        try {
+            redis.convertAndSend(channel, mapper.writeValueAsString(env));
+        } catch (Exception e) {
+            // Redis fora: os clientes deste nó recebem normalmente
+            System.out.println("[WS BRIDGE] Falha ao publicar " + dest + ": " + e.getMessage());
+        }
+    }
+
+    /*──────── Entrada: Redis -> broker local ────────*/
+    @Override
+    @SuppressWarnings("unchecked")
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            Map<String, Object> env = mapper.readValue(message.getBody(), Map.class);
+            String node = (String) env.get("node");
+            if (nodeId.equals(node)) {
+                return; // eco do próprio nó
+            }
+            checkGap(node, env.get("n"));
+            String dest = (String) env.get("dest");
+            byte[] body = Base64.getDecoder().decode((String) env.get("body"));
+            String type = (String) env.get("type");
+
+            Map<String, List<String>> nativeHeaders = (Map<String, List<String>>) env.get("headers");
+            if (dest.startsWith("/topic/sheet/") && (type == null || type.contains("json"))) {
+                // Numera de novo aqui (o "seq" do nó de origem não vale neste nó)
+                List<String> ev = (nativeHeaders != null) ? nativeHeaders.get(SheetEventBroadcaster.EVENT_HEADER) : null;
+                JsonNode payload = mapper.readTree(body);
+                sheetEventBroadcaster.relay(dest, payload.path("path").asText(dest),
+                        (ev != null && !ev.isEmpty()) ? ev.get(0) : "?", payload);
+                return;
+            }
+
+            SimpMessageHeaderAccessor acc = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            acc.setDestination(dest);
+            if (type != null) {
+                acc.setContentType(MimeType.valueOf(type));
+            }
+            if (nativeHeaders != null) {
+                nativeHeaders.forEach((k, v) -> v.forEach(x -> acc.addNativeHeader(k, x)));
+            }
+            acc.setHeader(SheetEventBroadcaster.RELAYED_HEADER, Boolean.TRUE);
+            acc.setLeaveMutable(true);
+            brokerChannel.send(MessageBuilder.createMessage(body, acc.getMessageHeaders()));
+        } catch (Exception e) {
+            System.out.println("[WS BRIDGE] Mensagem inválida do Redis: " + e.getMessage());
+        }
+    }
+
+    // "n" pulou: alguma mensagem daquele nó não chegou
+    private void checkGap(String node, Object n) {
+        if (!(n instanceof Number num)) {
+            return;
+        }
+        Long anterior = lastFromNode.put(node, num.longValue());
+        if (anterior != null && num.longValue() != anterior + 1) {
+            System.out.println("[WS BRIDGE] Mensagens perdidas do nó " + node + " (n "
+                    + anterior + " -> " + num + "): replay das planilhas invalidado");
+            sheetEventBroadcaster.invalidateReplay();
+        }
+    }
+}
@@ -5,6 +5,7 @@
 package com.app.mirrorpage.server.config;
 
 import com.app.mirrorpage.server.security.JwtAuthenticationFilter;
+import jakarta.servlet.DispatcherType;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -27,6 +28,7 @@ public class SecurityConfig {
         http.sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS));
 
         http.authorizeHttpRequests(auth -> auth
+                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll() // resposta de long-poll (já autenticado)
                 .requestMatchers("/api/auth/login").permitAll() // login sem token
                 .requestMatchers("/api/ping").permitAll()
                 .requestMatchers("/api/auth/refresh").permitAll()
@@ -0,0 +1,332 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.config;
+
+import com.app.mirrorpage.server.service.SheetEventBroadcaster;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+/**
+ * Protege a entrega dos broadcasts contra UMA conexão ruim (Wi-Fi caindo,
+ * notebook suspenso).
+ *
+ * Cada sessão ganha uma fila própria e quem escreve no socket é um pool
+ * separado (mirrorpage.ws.writer-threads): as threads do clientOutboundChannel
+ * só enfileiram e seguem para a próxima sessão. Quando a fila de uma sessão
+ * passa de mirrorpage.ws.send-buffer-limit bytes, vale a política
+ * mirrorpage.ws.slow-consumer:
+ *
+ * <pre>
+ * drop-oldest  descarta os eventos de planilha mais antigos; o cliente vê o
+ *              buraco no header "seq" e pede /app/sheet/replay
+ * disconnect   fecha a sessão (o cliente reconecta e recarrega)
+ * </pre>
+ *
+ * Só frame com "seq" de /topic/sheet/ pode ser descartado: o resto (locks de
+ * arquivo, árvore, respostas em /user/queue/..., frames que apresentam números
+ * do formato compacto no header "ids") não tem replay. Se descartar os
+ * eventos de planilha não basta, a sessão cai mesmo com drop-oldest.
+ *
+ * Um envio travado por mais de mirrorpage.ws.send-time-limit-ms derruba a
+ * sessão em qualquer política. Quem confere é uma tarefa agendada, então a
+ * sessão cai (e o writer preso nela é solto) mesmo sem mensagem nova.
+ */
+@Component
+public class SlowConsumerGuard {
+
+    private final boolean dropOldest;
+    private final int bufferLimit;
+    private final long sendTimeLimitMs;
+    private final ExecutorService writers;
+    private final ScheduledExecutorService stallChecker;
+
+    private final Map<String, GuardedSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong();
+    private final AtomicLong slowDisconnects = new AtomicLong();
+
+    public SlowConsumerGuard(
+            @Value("${mirrorpage.ws.slow-consumer:drop-oldest}") String policy,
+            @Value("${mirrorpage.ws.send-buffer-limit:524288}") int bufferLimit,
+            @Value("${mirrorpage.ws.send-time-limit-ms:10000}") long sendTimeLimitMs,
+            @Value("${mirrorpage.ws.writer-threads:4}") int writerThreads) {
+        if (!policy.equals("drop-oldest") && !policy.equals("disconnect")) {
+            throw new IllegalArgumentException("mirrorpage.ws.slow-consumer inválido: " + policy
+                    + " (use drop-oldest ou disconnect)");
+        }
+        this.dropOldest = policy.equals("drop-oldest");
+        this.bufferLimit = bufferLimit;
+        this.sendTimeLimitMs = sendTimeLimitMs;
+        AtomicInteger n = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(writerThreads, r -> {
+            Thread t = new Thread(r, "mirrorpage-ws-writer-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.stallChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mirrorpage-ws-stall-check");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(100, Math.min(1000, sendTimeLimitMs / 2));
+        stallChecker.scheduleWithFixedDelay(this::checkStalled, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Para o registration.addDecoratorFactory(...) do WebSocketConfig.
+     */
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                GuardedSession guarded = new GuardedSession(session);
+                sessions.put(session.getId(), guarded);
+                super.afterConnectionEstablished(guarded);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+                GuardedSession guarded = sessions.remove(session.getId());
+                if (guarded != null) {
+                    guarded.discard();
+                }
+                super.afterConnectionClosed(session, status);
+            }
+        };
+    }
+
+    public WsTransportStats stats() {
+        int maior = 0;
+        for (GuardedSession s : sessions.values()) {
+            maior = Math.max(maior, s.bufferSize.get());
+        }
+        return new WsTransportStats(dropOldest ? "drop-oldest" : "disconnect", sessions.size(), maior,
+                droppedMessages.get(), droppedBytes.get(), slowDisconnects.get());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stallChecker.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    // Tarefa agendada: derruba as sessões com um envio preso há tempo demais
+    private void checkStalled() {
+        long now = System.currentTimeMillis();
+        for (GuardedSession s : sessions.values()) {
+            long started = s.sendStartedAt;
+            if (s.closing || started == 0 || now - started <= sendTimeLimitMs) {
+                continue;
+            }
+            System.out.println("[WS] Sessão " + s.getId() + " travada há mais de "
+                    + sendTimeLimitMs + " ms: desconectando");
+            slowDisconnects.incrementAndGet();
+            s.closeQuietly();
+        }
+    }
+
+    /**
+     * Frame que pode ser descartado no drop-oldest: MESSAGE de /topic/sheet/
+     * com "seq" e sem "ids" (ou heartbeat). Olha só o bloco de headers do
+     * frame STOMP já codificado.
+     */
+    static boolean isDroppable(WebSocketMessage<?> message) {
+        String headers = headerBlock(message);
+        if (headers == null) {
+            return false;
+        }
+        if (headers.isBlank()) {
+            return true; // heartbeat
+        }
+        String[] lines = headers.split("\r?\n");
+        if (!lines[0].equals("MESSAGE")) {
+            return false;
+        }
+        boolean sheet = false;
+        boolean seq = false;
+        for (int i = 1; i < lines.length; i++) {
+            String l = lines[i];
+            if (l.startsWith(CompactWireFormat.IDS_HEADER + ":")) {
+                return false;
+            }
+            sheet |= l.startsWith("destination:/topic/sheet/");
+            seq |= l.startsWith(SheetEventBroadcaster.SEQ_HEADER + ":");
+        }
+        return sheet && seq;
+    }
+
+    // Headers do frame (comando incluído) até a linha em branco
+    private static String headerBlock(WebSocketMessage<?> message) {
+        if (message instanceof TextMessage text) {
+            String payload = text.getPayload();
+            int end = payload.indexOf("\n\n");
+            int endCrLf = payload.indexOf("\r\n\r\n");
+            if (endCrLf >= 0 && (end < 0 || endCrLf < end)) {
+                end = endCrLf;
+            }
+            return (end >= 0) ? payload.substring(0, end) : payload;
+        }
+        if (message instanceof BinaryMessage binary) {
+            ByteBuffer buf = binary.getPayload().duplicate();
+            int start = buf.position();
+            int end = buf.limit();
+            byte prev = 0;
+            for (int i = start; i < buf.limit(); i++) {
+                byte b = buf.get(i);
+                if (b == '\n' && prev == '\n') {
+                    end = i - 1;
+                    break;
+                }
+                if (b != '\r') {
+                    prev = b;
+                }
+            }
+            byte[] bytes = new byte[end - start];
+            buf.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        return null;
+    }
+
+    /*──────── Sessão com fila própria ────────*/
+    private final class GuardedSession extends WebSocketSessionDecorator {
+
+        private final ConcurrentLinkedDeque<WebSocketMessage<?>> buffer = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger bufferSize = new AtomicInteger();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile long sendStartedAt; // 0 = nenhum envio em andamento
+        private volatile boolean closing;
+
+        GuardedSession(WebSocketSession delegate) {
+            super(delegate);
+        }
+
+        // Nunca bloqueia: enfileira e, se preciso, acorda um writer
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            if (closing) {
+                return;
+            }
+            buffer.add(message);
+            bufferSize.addAndGet(message.getPayloadLength());
+            if (!checkLimits()) {
+                return;
+            }
+            if (draining.compareAndSet(false, true)) {
+                writers.execute(this::drain);
+            }
+        }
+
+        @Override
+        public void close(CloseStatus status) throws IOException {
+            discard();
+            super.close(status);
+        }
+
+        void discard() {
+            closing = true;
+            buffer.clear();
+            bufferSize.set(0);
+        }
+
+        private void drain() {
+            try {
+                while (true) {
+                    WebSocketMessage<?> m;
+                    while (!closing && (m = buffer.poll()) != null) {
+                        bufferSize.addAndGet(-m.getPayloadLength());
+                        sendStartedAt = System.currentTimeMillis();
+                        try {
+                            getDelegate().sendMessage(m);
+                        } finally {
+                            sendStartedAt = 0;
+                        }
+                    }
+                    draining.set(false);
+                    // Chegou mensagem entre o último poll e o set(false)?
+                    if (closing || buffer.isEmpty() || !draining.compareAndSet(false, true)) {
+                        return;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                draining.set(false);
+                System.out.println("[WS] Falha ao enviar para sessão " + getId() + ": " + e.getMessage());
+                closeQuietly();
+            }
+        }
+
+        // false = sessão derrubada
+        private boolean checkLimits() {
+            if (bufferSize.get() <= bufferLimit) {
+                return true;
+            }
+            if (dropOldest) {
+                dropOldestSequenced();
+                if (bufferSize.get() <= bufferLimit) {
+                    return true;
+                }
+            }
+            System.out.println("[WS] Sessão " + getId() + " lenta (" + bufferSize.get()
+                    + " bytes pendentes): desconectando");
+            slowDisconnects.incrementAndGet();
+            closeQuietly();
+            return false;
+        }
+
+        // Descarta, do mais antigo para o mais novo, só os frames que o
+        // cliente recupera pelo replay; os outros ficam na ordem em que estão
+        private void dropOldestSequenced() {
+            int msgs = 0;
+            long bytes = 0;
+            Iterator<WebSocketMessage<?>> it = buffer.iterator();
+            while (bufferSize.get() > bufferLimit && it.hasNext()) {
+                WebSocketMessage<?> m = it.next();
+                // removeFirstOccurrence falha se o writer já pegou a mensagem
+                if (isDroppable(m) && buffer.removeFirstOccurrence(m)) {
+                    bufferSize.addAndGet(-m.getPayloadLength());
+                    msgs++;
+                    bytes += m.getPayloadLength();
+                }
+            }
+            if (msgs > 0) {
+                droppedMessages.addAndGet(msgs);
+                droppedBytes.addAndGet(bytes);
+                System.out.println("[WS] Sessão " + getId() + " lenta: " + msgs
+                        + " eventos antigos descartados (" + bytes + " bytes)");
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException | RuntimeException e) {
+                // já caiu
+            }
+        }
+    }
+}
@@ -4,28 +4,105 @@
  */
 package com.app.mirrorpage.server.config;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.config.StompBrokerRelayRegistration;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     private final AuthChannelInterceptor authInterceptor;
+    private final SlowConsumerGuard slowConsumerGuard;
+    private final CompactWireFormat compactWireFormat;
+    private final RedisBrokerBridge redisBridge; // só com broker=redis
 
-    public WebSocketConfig(AuthChannelInterceptor authInterceptor) {
+    // simple (um nó) | stomp-relay (RabbitMQ/ActiveMQ com STOMP) | redis
+    @Value("${mirrorpage.ws.broker:simple}")
+    private String brokerMode;
+    @Value("${mirrorpage.ws.relay.host:localhost}")
+    private String relayHost;
+    @Value("${mirrorpage.ws.relay.port:61613}")
+    private int relayPort;
+    @Value("${mirrorpage.ws.relay.login:guest}")
+    private String relayLogin;
+    @Value("${mirrorpage.ws.relay.passcode:guest}")
+    private String relayPasscode;
+    @Value("${mirrorpage.ws.relay.virtual-host:}")
+    private String relayVirtualHost;
+
+    // Pools dos canais (0 = padrão do Spring)
+    @Value("${mirrorpage.ws.inbound-threads:0}")
+    private int inboundThreads;
+    @Value("${mirrorpage.ws.outbound-threads:0}")
+    private int outboundThreads;
+    @Value("${mirrorpage.ws.broker-threads:0}")
+    private int brokerThreads;
+
+    // Limites do transporte
+    @Value("${mirrorpage.ws.send-time-limit-ms:10000}")
+    private int sendTimeLimitMs;
+    @Value("${mirrorpage.ws.send-buffer-limit:524288}")
+    private int sendBufferLimit;
+    @Value("${mirrorpage.ws.message-size-limit:131072}")
+    private int messageSizeLimit;
+
+    public WebSocketConfig(AuthChannelInterceptor authInterceptor, SlowConsumerGuard slowConsumerGuard,
+            CompactWireFormat compactWireFormat, ObjectProvider<RedisBrokerBridge> redisBridge) {
         this.authInterceptor = authInterceptor;
+        this.slowConsumerGuard = slowConsumerGuard;
+        this.compactWireFormat = compactWireFormat;
+        this.redisBridge = redisBridge.getIfAvailable();
     }
 
     // ... (seus métodos configureMessageBroker e registerStompEndpoints continuam iguais) ...
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic");
+        // /queue: respostas para uma sessão só (ex.: /user/queue/sheet-replay)
+        switch (brokerMode) {
+            case "simple", "redis" ->
+                config.enableSimpleBroker("/topic", "/queue");
+            case "stomp-relay" -> {
+                // Todos os nós no mesmo broker externo: cada evento chega a
+                // todos os clientes. Precisa do reactor-netty (mvn -Pstomp-relay).
+                // Sem "seq" nem replay nas planilhas (ver SheetEventBroadcaster),
+                // então o drop-oldest do SlowConsumerGuard acaba desconectando
+                StompBrokerRelayRegistration relay = config.enableStompBrokerRelay("/topic", "/queue")
+                        .setRelayHost(relayHost)
+                        .setRelayPort(relayPort)
+                        .setClientLogin(relayLogin)
+                        .setClientPasscode(relayPasscode)
+                        .setSystemLogin(relayLogin)
+                        .setSystemPasscode(relayPasscode);
+                if (!relayVirtualHost.isBlank()) {
+                    relay.setVirtualHost(relayVirtualHost);
+                }
+                System.out.println("[WS] Broker relay STOMP em " + relayHost + ":" + relayPort);
+            }
+            default ->
+                throw new IllegalArgumentException("mirrorpage.ws.broker inválido: " + brokerMode
+                        + " (use simple, stomp-relay ou redis)");
+        }
+        if (redisBridge != null) {
+            // Tudo o que o servidor publica em /topic vai também para os outros nós
+            config.configureBrokerChannel().interceptors(redisBridge);
+            System.out.println("[WS] Ponte Redis entre nós ativa");
+        }
         config.setApplicationDestinationPrefixes("/app");
+        // Com vários threads de saída, mantém a ordem por sessão (o "seq"
+        // das planilhas depende disso)
+        config.setPreservePublishOrder(true);
+        if (brokerThreads > 0) {
+            config.configureBrokerChannel().taskExecutor()
+                    .corePoolSize(brokerThreads).maxPoolSize(brokerThreads);
+        }
     }
 
     @Override
@@ -36,6 +113,28 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     // 🔴 OBRIGATÓRIO: Registra o interceptador aqui
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
-        registration.interceptors(authInterceptor);
+        // compactWireFormat: lê o "wire-format" do CONNECT
+        registration.interceptors(authInterceptor, compactWireFormat);
+        if (inboundThreads > 0) {
+            registration.taskExecutor().corePoolSize(inboundThreads).maxPoolSize(inboundThreads);
+        }
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.interceptors(compactWireFormat.outbound());
+        if (outboundThreads > 0) {
+            registration.taskExecutor().corePoolSize(outboundThreads).maxPoolSize(outboundThreads);
+        }
+    }
+
+    // Os limites do Spring ficam de segurança; quem aplica a política de
+    // cliente lento é o SlowConsumerGuard (o envio dele nunca bloqueia)
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendTimeLimit(sendTimeLimitMs)
+                .setSendBufferSizeLimit(sendBufferLimit)
+                .setMessageSizeLimit(messageSizeLimit)
+                .addDecoratorFactory(slowConsumerGuard::decorate);
     }
 }
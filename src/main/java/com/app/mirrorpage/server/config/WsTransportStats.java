@@ -0,0 +1,19 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.config;
+
+/**
+ * Contadores da proteção contra clientes lentos ({@link SlowConsumerGuard}).
+ */
+public record WsTransportStats(
+        String policy,          // drop-oldest | disconnect
+        int sessions,           // sessões WebSocket abertas
+        int maxBufferedBytes,   // maior fila pendente entre as sessões abertas
+        long droppedMessages,   // descartadas (drop-oldest) desde a subida
+        long droppedBytes,
+        long slowDisconnects    // sessões derrubadas por lentidão
+        ) {
+
+}
@@ -1,83 +1,190 @@
 package com.app.mirrorpage.server.service;
 
+import com.app.mirrorpage.api.dto.FileLockEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
-import java.time.Duration;
-import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.function.Predicate;
 
+/**
+ * Locks de arquivo. Quem guarda é o {@link FileLockStore} configurado
+ * (mirrorpage.lock.store).
+ *
+ * Além do tryLock (falha na hora), há a espera: o pedido entra numa fila FIFO
+ * do arquivo (até mirrorpage.lock.file-wait.max-waiters) e recebe o lock no
+ * momento em que ele é liberado ou vence ({@link #handOff(String)}). Com gente
+ * na fila, um tryLock de quem não é o primeiro falha, para ninguém furar a
+ * fila.
+ *
+ * O monitor (this) só protege as filas: a entrega ao cliente (setResult do
+ * long-poll) e o aviso em /topic/locks acontecem depois de soltá-lo, para um
+ * cliente lento ou o broker não segurarem os outros arquivos.
+ */
 @Service
 public class FileLockService {
 
-    // 1. Classe interna para guardar Dono + Validade
-    private static class FileLockInfo {
-        final String owner;
-        final Instant expiresAt;
+    public enum WaitStatus {
+        GRANTED, QUEUED, QUEUE_FULL
+    }
+
+    /**
+     * Pedido na fila de um arquivo. "onGranted" recebe o leaseId quando o
+     * lock chega e devolve false se quem pediu já desistiu (o lock passa para
+     * o próximo).
+     */
+    public static final class Waiter {
 
-        FileLockInfo(String owner, Instant expiresAt) {
-            this.owner = owner;
-            this.expiresAt = expiresAt;
+        final String path;
+        final String user;
+        final Predicate<Long> onGranted;
+
+        public Waiter(String path, String user, Predicate<Long> onGranted) {
+            this.path = path;
+            this.user = user;
+            this.onGranted = onGranted;
         }
     }
 
-    // 2. Mapa agora guarda o OBJETO FileLockInfo, não apenas a String
-    private final Map<String, FileLockInfo> locks = new ConcurrentHashMap<>();
+    // Lock já tomado para o primeiro da fila, esperando a entrega fora do monitor
+    private record Grant(Waiter waiter, Long leaseId, boolean jaEraDono) {
+
+    }
+
+    private final FileLockStore store;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final int maxWaiters;
 
-    // Tempo de vida do lock (2 minutos)
-    private static final Duration TTL = Duration.ofMinutes(2);
+    // path -> fila de espera (protegido por this)
+    private final Map<String, Deque<Waiter>> queues = new HashMap<>();
+
+    public FileLockService(FileLockStore store, SimpMessagingTemplate messagingTemplate,
+            @Value("${mirrorpage.lock.file-wait.max-waiters:20}") int maxWaiters) {
+        this.store = store;
+        this.messagingTemplate = messagingTemplate;
+        this.maxWaiters = maxWaiters;
+    }
 
     /**
      * Tenta aplicar o lock. 
      * Retorna TRUE se conseguiu.
      */
     public synchronized boolean tryLock(String path, String user) {
-        Instant now = Instant.now();
-        FileLockInfo existing = locks.get(path);
-
-        // Se existe lock
-        if (existing != null) {
-            // Se expirou -> Remove e deixa pegar
-            if (existing.expiresAt.isBefore(now)) {
-                locks.remove(path);
-            } 
-            // Se NÃO expirou e é de OUTRO usuário -> Bloqueia
-            else if (!existing.owner.equals(user)) {
-                return false; 
+        Deque<Waiter> fila = queues.get(path);
+        if (fila != null && !fila.peekFirst().user.equals(user) && !isOwner(path, user)) {
+            return false; // tem gente esperando antes
+        }
+        return store.tryLock(path, user);
+    }
+
+    /**
+     * Trava agora ou entra na fila do arquivo. Se conceder na hora,
+     * "onGranted" já foi chamado.
+     */
+    public WaitStatus lockOrWait(Waiter waiter) {
+        Long leaseId;
+        synchronized (this) {
+            if (!tryLock(waiter.path, waiter.user)) {
+                Deque<Waiter> fila = queues.computeIfAbsent(waiter.path, p -> new ArrayDeque<>());
+                if (fila.size() >= maxWaiters) {
+                    if (fila.isEmpty()) {
+                        queues.remove(waiter.path);
+                    }
+                    return WaitStatus.QUEUE_FULL;
+                }
+                fila.addLast(waiter);
+                System.out.println("[FILE LOCK] " + waiter.user + " na fila de " + waiter.path
+                        + " (posição " + fila.size() + ")");
+                return WaitStatus.QUEUED;
             }
+            leaseId = store.getLeaseId(waiter.path);
         }
+        waiter.onGranted.test(leaseId);
+        return WaitStatus.GRANTED;
+    }
 
-        // Cria ou Renova o lock
-        locks.put(path, new FileLockInfo(user, now.plus(TTL)));
-        
-        System.out.println("[FILE LOCK] Lock concedido/renovado para " + user + " em " + path);
-        return true;
+    /**
+     * Tira o pedido da fila (desistiu, timeout, conexão caiu). Não faz nada
+     * se ele já foi atendido.
+     */
+    public void cancelWait(Waiter waiter) {
+        synchronized (this) {
+            Deque<Waiter> fila = queues.get(waiter.path);
+            if (fila == null) {
+                return;
+            }
+            boolean eraPrimeiro = fila.peekFirst() == waiter;
+            if (!fila.remove(waiter)) {
+                return;
+            }
+            if (fila.isEmpty()) {
+                queues.remove(waiter.path);
+                return;
+            }
+            if (!eraPrimeiro) {
+                return;
+            }
+        }
+        handOff(waiter.path); // o arquivo pode estar livre esperando por ele
     }
 
     /**
-     * Libera o lock se o usuário for o dono.
+     * Passa o lock do arquivo para o primeiro da fila que ainda espera, se o
+     * arquivo estiver livre. Chamado depois do unlock e do varredor (que
+     * também cobre liberações feitas em outro nó).
      */
-    public synchronized void unlock(String path, String user) {
-        FileLockInfo lock = locks.get(path);
-        // Só remove se existir e for do usuário solicitante
-        if (lock != null && lock.owner.equals(user)) {
-            locks.remove(path);
-            System.out.println("[FILE LOCK] Lock liberado por " + user + " em " + path);
+    public void handOff(String path) {
+        Grant g;
+        while ((g = nextGrant(path)) != null) {
+            if (deliver(g)) {
+                return;
+            }
+        }
+    }
+
+    public void handOffAll() {
+        List<Grant> grants = new ArrayList<>();
+        synchronized (this) {
+            for (String path : List.copyOf(queues.keySet())) {
+                Grant g = nextGrant(path);
+                if (g != null) {
+                    grants.add(g);
+                }
+            }
+        }
+        for (Grant g : grants) {
+            if (!deliver(g)) {
+                handOff(g.waiter().path);
+            }
         }
     }
 
+    /**
+     * Libera o lock se o usuário for o dono.
+     */
+    public void unlock(String path, String user) {
+        store.unlock(path, user);
+    }
+
     /**
      * Retorna o nome do dono atual (ou null se livre).
      */
     public String getOwner(String path) {
-        FileLockInfo lock = locks.get(path);
-        if (lock == null) return null;
-        
-        // Se expirou, limpa e retorna null
-        if (lock.expiresAt.isBefore(Instant.now())) {
-            locks.remove(path);
-            return null;
-        }
-        return lock.owner;
+        return store.getOwner(path);
+    }
+
+    /**
+     * Id do lease vigente do arquivo (ou null se livre).
+     */
+    public Long getLeaseId(String path) {
+        return store.getLeaseId(path);
     }
 
     /**
@@ -85,15 +192,68 @@ public class FileLockService {
      * Usado pelo endpoint de notificação (CTRL+S).
      */
     public boolean isOwner(String path, String user) {
-        FileLockInfo lock = locks.get(path);
-        
-        if (lock == null) return false;
-        
-        if (lock.expiresAt.isBefore(Instant.now())) {
-            locks.remove(path);
-            return false;
+        String owner = store.getOwner(path);
+        return owner != null && owner.equals(user);
+    }
+
+    /**
+     * Heartbeat: renova os locks vigentes de "user" que estão em "ids" (vazio
+     * ou null = nenhum).
+     *
+     * @return os leaseIds renovados
+     */
+    public Set<Long> renew(String user, Collection<Long> ids) {
+        return store.renew(user, ids);
+    }
+
+    /**
+     * Remove os locks vencidos (chamado pelo LeaseSweeper).
+     *
+     * @return path -> dono de cada lock removido (para avisar os clientes)
+     */
+    public Map<String, String> sweepExpired() {
+        return store.sweepExpired();
+    }
+
+    public LeaseStats stats() {
+        return store.stats();
+    }
+
+    /*──────── Helpers ────────*/
+    // Sob o monitor: se o arquivo está livre para o primeiro da fila, tranca
+    // para ele e o tira da fila. null = fila vazia ou arquivo ainda ocupado
+    private synchronized Grant nextGrant(String path) {
+        Deque<Waiter> fila = queues.get(path);
+        if (fila == null) {
+            return null;
+        }
+        Grant g = null;
+        Waiter w = fila.peekFirst();
+        if (w != null) {
+            boolean jaEraDono = isOwner(path, w.user);
+            if (store.tryLock(path, w.user)) {
+                fila.pollFirst();
+                g = new Grant(w, store.getLeaseId(path), jaEraDono);
+            }
+        }
+        if (fila.isEmpty()) {
+            queues.remove(path);
+        }
+        return g;
+    }
+
+    // Fora do monitor: entrega o lock e avisa os clientes. false = quem pediu
+    // já tinha desistido (o lock é devolvido e passa para o próximo)
+    private boolean deliver(Grant g) {
+        Waiter w = g.waiter();
+        if (w.onGranted.test(g.leaseId())) {
+            System.out.println("[FILE LOCK] Lock de " + w.path + " passado para " + w.user + " (fila)");
+            messagingTemplate.convertAndSend("/topic/locks", new FileLockEvent(w.path, w.user, true, false));
+            return true;
+        }
+        if (!g.jaEraDono()) {
+            store.unlock(w.path, w.user); // desistiu no meio do caminho: próximo
         }
-        
-        return lock.owner.equals(user);
+        return false;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,55 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.service;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Onde os locks de arquivo ficam guardados (mirrorpage.lock.store: memory
+ * ou redis). Mesmo esquema do CellLockStore.
+ */
+public interface FileLockStore {
+
+    /**
+     * Trava (ou renova, se já é de "user") o arquivo.
+     *
+     * @return true se conseguiu
+     */
+    boolean tryLock(String path, String user);
+
+    /**
+     * @return true se o lock era de "user" e foi liberado
+     */
+    boolean unlock(String path, String user);
+
+    /**
+     * Dono atual (null se livre ou vencido).
+     */
+    String getOwner(String path);
+
+    /**
+     * Id do lease vigente do arquivo (null se livre ou vencido).
+     */
+    Long getLeaseId(String path);
+
+    /**
+     * Heartbeat: renova os locks vigentes de "user" que estão em "ids",
+     * mantendo o leaseId. "ids" vazio/null não renova nada.
+     *
+     * @return os leaseIds renovados
+     */
+    Set<Long> renew(String user, Collection<Long> ids);
+
+    /**
+     * Remove os locks vencidos.
+     *
+     * @return path -> dono de cada lock removido
+     */
+    Map<String, String> sweepExpired();
+
+    LeaseStats stats();
+}
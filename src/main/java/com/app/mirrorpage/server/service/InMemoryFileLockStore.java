@@ -0,0 +1,211 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Locks de arquivo em memória (mirrorpage.lock.store=memory, o padrão).
+ */
+@Component
+@ConditionalOnProperty(name = "mirrorpage.lock.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryFileLockStore implements FileLockStore {
+
+    // 1. Classe interna para guardar Dono + Validade + Id do lease
+    private static class FileLockInfo {
+        final String owner;
+        final Instant expiresAt;
+        final long leaseId;
+
+        FileLockInfo(String owner, Instant expiresAt, long leaseId) {
+            this.owner = owner;
+            this.expiresAt = expiresAt;
+            this.leaseId = leaseId;
+        }
+    }
+
+    // 2. Mapa agora guarda o OBJETO FileLockInfo, não apenas a String
+    private final Map<String, FileLockInfo> locks = new ConcurrentHashMap<>();
+
+    // Tempo de vida do lock (mirrorpage.lease.ttl-seconds); renovado pelo heartbeat
+    private final Duration ttl;
+    private final LeaseIds leaseIds;
+
+    // 3. Índice de expiração ordenado por prazo (usado pelo LeaseSweeper).
+    // Renovar só acrescenta uma entrada; a antiga é ignorada quando vencer.
+    private record Expiry(long at, long seq, String path, FileLockInfo lock) implements Comparable<Expiry> {
+
+        @Override
+        public int compareTo(Expiry o) {
+            int c = Long.compare(at, o.at);
+            return (c != 0) ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    private final ConcurrentSkipListSet<Expiry> expiries = new ConcurrentSkipListSet<>();
+    private final AtomicLong expirySeq = new AtomicLong();
+    private final AtomicLong sweptTotal = new AtomicLong();
+
+    public InMemoryFileLockStore(LeaseIds leaseIds,
+            @Value("${mirrorpage.lease.ttl-seconds:30}") long ttlSeconds) {
+        this.leaseIds = leaseIds;
+        this.ttl = Duration.ofSeconds(ttlSeconds);
+    }
+
+    /**
+     * Tenta aplicar o lock. 
+     * Retorna TRUE se conseguiu.
+     */
+    @Override
+    public synchronized boolean tryLock(String path, String user) {
+        Instant now = Instant.now();
+        FileLockInfo existing = locks.get(path);
+
+        // Se existe lock
+        if (existing != null) {
+            // Se expirou -> Remove e deixa pegar
+            if (existing.expiresAt.isBefore(now)) {
+                locks.remove(path);
+                existing = null;
+            } 
+            // Se NÃO expirou e é de OUTRO usuário -> Bloqueia
+            else if (!existing.owner.equals(user)) {
+                return false; 
+            }
+        }
+
+        // Cria ou Renova o lock (renovação mantém o leaseId)
+        long leaseId = (existing != null) ? existing.leaseId : leaseIds.next();
+        put(path, new FileLockInfo(user, now.plus(ttl), leaseId));
+        
+        System.out.println("[FILE LOCK] Lock concedido/renovado para " + user + " em " + path);
+        return true;
+    }
+
+    /**
+     * Libera o lock se o usuário for o dono.
+     */
+    @Override
+    public synchronized boolean unlock(String path, String user) {
+        FileLockInfo lock = locks.get(path);
+        // Só remove se existir e for do usuário solicitante
+        if (lock != null && lock.owner.equals(user)) {
+            locks.remove(path);
+            System.out.println("[FILE LOCK] Lock liberado por " + user + " em " + path);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Retorna o nome do dono atual (ou null se livre).
+     */
+    @Override
+    public String getOwner(String path) {
+        FileLockInfo lock = locks.get(path);
+        if (lock == null) return null;
+        
+        // Se expirou, já conta como livre (o varredor tira do mapa)
+        if (lock.expiresAt.isBefore(Instant.now())) {
+            return null;
+        }
+        return lock.owner;
+    }
+
+    /**
+     * Id do lease vigente do arquivo (ou null se livre).
+     */
+    @Override
+    public Long getLeaseId(String path) {
+        FileLockInfo lock = locks.get(path);
+        if (lock == null || lock.expiresAt.isBefore(Instant.now())) {
+            return null;
+        }
+        return lock.leaseId;
+    }
+
+    /**
+     * Heartbeat: renova os locks vigentes de "user" que estão em "ids",
+     * mantendo o leaseId ("ids" vazio/null = nenhum).
+     *
+     * @return os leaseIds renovados
+     */
+    @Override
+    public synchronized Set<Long> renew(String user, Collection<Long> ids) {
+        Set<Long> renovados = new HashSet<>();
+        if (user == null || ids == null || ids.isEmpty()) {
+            return renovados;
+        }
+        Instant now = Instant.now();
+        for (Map.Entry<String, FileLockInfo> e : locks.entrySet()) {
+            FileLockInfo lock = e.getValue();
+            if (!lock.owner.equals(user) || lock.expiresAt.isBefore(now)
+                    || !ids.contains(lock.leaseId)) {
+                continue;
+            }
+            put(e.getKey(), new FileLockInfo(user, now.plus(ttl), lock.leaseId));
+            renovados.add(lock.leaseId);
+        }
+        return renovados;
+    }
+
+    /**
+     * Remove os locks vencidos, olhando só as entradas do índice cujo prazo já
+     * passou.
+     *
+     * @return path -> dono de cada lock removido (para avisar os clientes)
+     */
+    @Override
+    public synchronized Map<String, String> sweepExpired() {
+        long now = System.currentTimeMillis();
+        Map<String, String> removidos = new LinkedHashMap<>();
+        Expiry e;
+        while ((e = expiries.pollFirst()) != null) {
+            if (e.at() >= now) {
+                expiries.add(e); // ainda não venceu: devolve e para
+                break;
+            }
+            // Só remove se ainda for o mesmo lock (não foi renovado/liberado)
+            if (locks.remove(e.path(), e.lock())) {
+                removidos.put(e.path(), e.lock().owner);
+            }
+        }
+        sweptTotal.addAndGet(removidos.size());
+        return removidos;
+    }
+
+    @Override
+    public LeaseStats stats() {
+        Instant now = Instant.now();
+        int live = 0;
+        int expired = 0;
+        for (FileLockInfo lock : locks.values()) {
+            if (lock.expiresAt.isBefore(now)) {
+                expired++;
+            } else {
+                live++;
+            }
+        }
+        return new LeaseStats(live, expired, sweptTotal.get());
+    }
+
+    // Grava o lock e agenda o vencimento
+    private void put(String path, FileLockInfo lock) {
+        locks.put(path, lock);
+        expiries.add(new Expiry(lock.expiresAt.toEpochMilli(), expirySeq.incrementAndGet(), path, lock));
+    }
+}
\ No newline at end of file
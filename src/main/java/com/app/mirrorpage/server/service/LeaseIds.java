@@ -0,0 +1,26 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gerador dos ids de lease (locks de célula e de arquivo).
+ *
+ * Um único contador para os dois serviços: o id identifica o lease no
+ * heartbeat sem precisar dizer se é célula ou arquivo. Começa no relógio
+ * (em microssegundos) para continuar crescendo depois de um restart, o que
+ * permite usar o id como fencing token nas escritas de célula.
+ */
+@Component
+public class LeaseIds {
+
+    private final AtomicLong last = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    public long next() {
+        return last.incrementAndGet();
+    }
+}
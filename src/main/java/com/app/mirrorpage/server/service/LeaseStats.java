@@ -0,0 +1,16 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.service;
+
+/**
+ * Contagem dos leases (locks com prazo) de um serviço.
+ */
+public record LeaseStats(
+        int live,        // vigentes
+        int expired,     // vencidos que o varredor ainda não removeu
+        long sweptTotal  // removidos pelo varredor desde a subida
+        ) {
+
+}
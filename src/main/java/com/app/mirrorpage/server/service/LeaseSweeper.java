@@ -0,0 +1,83 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.service;
+
+import com.app.mirrorpage.api.dto.FileLockEvent;
+import com.app.mirrorpage.server.tabel.CellLock;
+import com.app.mirrorpage.server.tabel.CellLockEvent;
+import com.app.mirrorpage.server.tabel.CellLockService;
+import jakarta.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Varredor de leases vencidos (locks de célula e de arquivo).
+ *
+ * A cada mirrorpage.lease.sweep-interval-ms tira dos serviços os locks cujo
+ * prazo passou (cliente que caiu sem dar unlock) e avisa os clientes, para a
+ * célula/arquivo aparecer livre sem ninguém precisar tentar travar.
+ */
+@Component
+public class LeaseSweeper {
+
+    private final CellLockService cellLockService;
+    private final FileLockService fileLockService;
+    private final SheetEventBroadcaster sheetEventBroadcaster;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ScheduledExecutorService sweeper;
+
+    public LeaseSweeper(CellLockService cellLockService,
+            FileLockService fileLockService,
+            SheetEventBroadcaster sheetEventBroadcaster,
+            SimpMessagingTemplate messagingTemplate,
+            @Value("${mirrorpage.lease.sweep-interval-ms:1000}") long sweepIntervalMs) {
+        this.cellLockService = cellLockService;
+        this.fileLockService = fileLockService;
+        this.sheetEventBroadcaster = sheetEventBroadcaster;
+        this.messagingTemplate = messagingTemplate;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mirrorpage-lease-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    private void sweep() {
+        try {
+            List<CellLock> celulas = cellLockService.sweepExpired();
+            for (CellLock lock : celulas) {
+                sheetEventBroadcaster.sendCellLock(
+                        new CellLockEvent(lock.path, lock.row, lock.col, lock.owner, false));
+            }
+
+            Map<String, String> arquivos = fileLockService.sweepExpired();
+            // Mesmo evento do unlock manual (FileLockController)
+            arquivos.forEach((path, owner)
+                    -> messagingTemplate.convertAndSend("/topic/locks", new FileLockEvent(path, null, false, false)));
+            // Arquivos liberados (aqui ou em outro nó) vão para quem está na fila
+            fileLockService.handOffAll();
+
+            if (!celulas.isEmpty() || !arquivos.isEmpty()) {
+                System.out.printf("[LEASE] Expirados: %d locks de célula, %d de arquivo%n",
+                        celulas.size(), arquivos.size());
+            }
+        } catch (Exception e) {
+            // Nunca deixa a thread do varredor morrer
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+/**
+ * Locks de arquivo no Redis (mirrorpage.lock.store=redis).
+ *
+ * <pre>
+ * file      hash  path -> "dono \t expiraEm(ms) \t leaseId"
+ * file:exp  zset  path (score = expiraEm), para o varredor
+ * seq       contador dos leaseIds (o mesmo dos locks de célula)
+ * </pre>
+ *
+ * Mesmas regras do RedisCellLockStore: escrita = script Lua atômico, "agora"
+ * = relógio do nó.
+ */
+@Component
+@ConditionalOnProperty(name = "mirrorpage.lock.store", havingValue = "redis")
+public class RedisFileLockStore implements FileLockStore {
+
+    private static final String PRELUDE = """
+            local P = ARGV[1]
+            local now = tonumber(ARGV[2])
+            local function parse(v)
+              local o, e, id = string.match(v, '^(.*)\\t(%d+)\\t(%d+)$')
+              return o, tonumber(e), id
+            end
+            """;
+
+    // ARGV: P, now, path, user, ttlMs -> {'1', leaseId} ou {'0', dono}
+    private static final DefaultRedisScript<List<String>> TRY_LOCK = listScript("""
+            local path, user = ARGV[3], ARGV[4]
+            local cur = redis.call('HGET', P .. 'file', path)
+            local id = nil
+            if cur then
+              local o, e, i = parse(cur)
+              if e >= now then
+                if o ~= user then return {'0', o} end
+                id = i
+              end
+            end
+            if not id then id = tostring(redis.call('INCR', P .. 'seq')) end
+            local exp = now + tonumber(ARGV[5])
+            redis.call('HSET', P .. 'file', path, user .. '\\t' .. exp .. '\\t' .. id)
+            redis.call('ZADD', P .. 'file:exp', exp, path)
+            return {'1', id}
+            """);
+
+    // ARGV: P, now, path, user -> '1' se liberou
+    private static final DefaultRedisScript<String> UNLOCK = new DefaultRedisScript<>(PRELUDE + """
+            local cur = redis.call('HGET', P .. 'file', ARGV[3])
+            if not cur then return '0' end
+            local o = parse(cur)
+            if o ~= ARGV[4] then return '0' end
+            redis.call('HDEL', P .. 'file', ARGV[3])
+            redis.call('ZREM', P .. 'file:exp', ARGV[3])
+            return '1'
+            """, String.class);
+
+    // ARGV: P, now, user, ttlMs, leaseIds... -> leaseIds renovados
+    private static final DefaultRedisScript<List<String>> RENEW = listScript("""
+            local user = ARGV[3]
+            local exp = now + tonumber(ARGV[4])
+            local wanted = {}
+            for k = 5, #ARGV do wanted[ARGV[k]] = true end
+            local all = redis.call('HGETALL', P .. 'file')
+            local out = {}
+            for k = 1, #all, 2 do
+              local o, e, i = parse(all[k + 1])
+              if o == user and e >= now and wanted[i] then
+                redis.call('HSET', P .. 'file', all[k], o .. '\\t' .. exp .. '\\t' .. i)
+                redis.call('ZADD', P .. 'file:exp', exp, all[k])
+                out[#out + 1] = i
+              end
+            end
+            return out
+            """);
+
+    // ARGV: P, now -> {path, dono, path, dono...} dos vencidos removidos
+    private static final DefaultRedisScript<List<String>> SWEEP = listScript("""
+            local paths = redis.call('ZRANGEBYSCORE', P .. 'file:exp', '-inf', '(' .. ARGV[2])
+            local out = {}
+            for _, path in ipairs(paths) do
+              redis.call('ZREM', P .. 'file:exp', path)
+              local cur = redis.call('HGET', P .. 'file', path)
+              if cur then
+                local o, e = parse(cur)
+                if e < now then
+                  redis.call('HDEL', P .. 'file', path)
+                  out[#out + 1] = path
+                  out[#out + 1] = o
+                end
+              end
+            end
+            return out
+            """);
+
+    private final StringRedisTemplate redis;
+    private final String prefix;
+    private final Duration ttl;
+    private final AtomicLong sweptTotal = new AtomicLong();
+
+    public RedisFileLockStore(StringRedisTemplate redis,
+            @Value("${mirrorpage.lock.redis-prefix:mirrorpage:lock:}") String prefix,
+            @Value("${mirrorpage.lease.ttl-seconds:30}") long ttlSeconds) {
+        this.redis = redis;
+        this.prefix = prefix;
+        this.ttl = Duration.ofSeconds(ttlSeconds);
+    }
+
+    @Override
+    public boolean tryLock(String path, String user) {
+        List<String> r = run(TRY_LOCK, path, user, String.valueOf(ttl.toMillis()));
+        boolean ok = "1".equals(r.get(0));
+        if (ok) {
+            System.out.println("[FILE LOCK] Lock concedido/renovado para " + user + " em " + path);
+        }
+        return ok;
+    }
+
+    @Override
+    public boolean unlock(String path, String user) {
+        boolean ok = "1".equals(redis.execute(UNLOCK, List.of(), args(path, user)));
+        if (ok) {
+            System.out.println("[FILE LOCK] Lock liberado por " + user + " em " + path);
+        }
+        return ok;
+    }
+
+    @Override
+    public String getOwner(String path) {
+        String[] f = current(path);
+        return (f != null) ? f[0] : null;
+    }
+
+    @Override
+    public Long getLeaseId(String path) {
+        String[] f = current(path);
+        return (f != null) ? Long.valueOf(f[2]) : null;
+    }
+
+    @Override
+    public Set<Long> renew(String user, Collection<Long> ids) {
+        Set<Long> renovados = new HashSet<>();
+        if (user == null || ids == null || ids.isEmpty()) {
+            return renovados;
+        }
+        List<String> a = new ArrayList<>();
+        a.add(user);
+        a.add(String.valueOf(ttl.toMillis()));
+        for (Long id : ids) {
+            a.add(String.valueOf(id));
+        }
+        for (String id : run(RENEW, a.toArray(String[]::new))) {
+            renovados.add(Long.parseLong(id));
+        }
+        return renovados;
+    }
+
+    @Override
+    public Map<String, String> sweepExpired() {
+        List<String> r = run(SWEEP);
+        Map<String, String> removidos = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < r.size(); i += 2) {
+            removidos.put(r.get(i), r.get(i + 1));
+        }
+        sweptTotal.addAndGet(removidos.size());
+        return removidos;
+    }
+
+    @Override
+    public LeaseStats stats() {
+        long now = System.currentTimeMillis();
+        int live = 0;
+        int expired = 0;
+        for (Object v : redis.opsForHash().values(prefix + "file")) {
+            if (Long.parseLong(split((String) v)[1]) < now) {
+                expired++;
+            } else {
+                live++;
+            }
+        }
+        return new LeaseStats(live, expired, sweptTotal.get());
+    }
+
+    /*──────── Helpers ────────*/
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static DefaultRedisScript<List<String>> listScript(String body) {
+        return new DefaultRedisScript(PRELUDE + body, List.class);
+    }
+
+    // Os dois primeiros ARGV de todo script: prefixo e "agora"
+    private Object[] args(String... rest) {
+        Object[] a = new Object[rest.length + 2];
+        a[0] = prefix;
+        a[1] = String.valueOf(System.currentTimeMillis());
+        System.arraycopy(rest, 0, a, 2, rest.length);
+        return a;
+    }
+
+    private List<String> run(DefaultRedisScript<List<String>> script, String... rest) {
+        List<String> r = redis.execute(script, List.of(), args(rest));
+        return (r != null) ? r : List.of();
+    }
+
+    // {dono, expiraEm, leaseId} do lock vigente, ou null
+    private String[] current(String path) {
+        Object v = redis.opsForHash().get(prefix + "file", path);
+        if (v == null) {
+            return null;
+        }
+        String[] f = split((String) v);
+        return Instant.ofEpochMilli(Long.parseLong(f[1])).isBefore(Instant.now()) ? null : f;
+    }
+
+    // "dono \t expiraEm \t leaseId" (o dono vem primeiro; corta pelos dois últimos TABs)
+    private static String[] split(String value) {
+        int t2 = value.lastIndexOf('\t');
+        int t1 = value.lastIndexOf('\t', t2 - 1);
+        return new String[]{value.substring(0, t1), value.substring(t1 + 1, t2), value.substring(t2 + 1)};
+    }
+}
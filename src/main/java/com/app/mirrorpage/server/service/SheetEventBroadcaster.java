@@ -4,64 +4,411 @@
  */
 package com.app.mirrorpage.server.service;
 
+import com.app.mirrorpage.server.tabel.CellLockEvent;
+import com.app.mirrorpage.server.tabel.CellLocksEvent;
+import com.app.mirrorpage.server.tabel.CellPatch;
 import com.app.mirrorpage.server.tabel.RowDeletedEvent;
 import com.app.mirrorpage.server.tabel.RowMoveEvent;
 import com.app.mirrorpage.server.tabel.SheetCellChangeEvent;
+import com.app.mirrorpage.server.tabel.SheetCellsChangedEvent;
+import com.app.mirrorpage.server.tabel.SheetEventBatch;
+import com.app.mirrorpage.server.tabel.SheetReplay;
 import com.app.mirrorpage.server.tabel.SheetRowInsertedEvent;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
+/**
+ * Envia os eventos das planilhas para /topic/sheet/{path}.
+ *
+ * Com mirrorpage.ws.coalesce-window-ms &gt; 0 os eventos de cada tópico
+ * esperam essa janela numa fila: escritas repetidas na mesma célula ficam só
+ * com a última e o que sobrar sai num único {@link SheetEventBatch} (um
+ * evento sozinho sai no formato normal). Em colagens grandes e reordenações
+ * do espelho isso troca centenas de mensagens por uma. Com 0 (padrão) cada
+ * evento sai na hora, como sempre.
+ *
+ * Todo frame leva os headers STOMP "seq", sem buracos por tópico, e "event"
+ * (tipo do payload). O cliente
+ * que vê um salto (ou volta de uma queda) pede os que faltaram em
+ * {@link #replay(String, long)} em vez de recarregar o CSV.
+ *
+ * Com mirrorpage.ws.broker=stomp-relay não há "seq" nem replay: cada nó
+ * entrega direto ao broker externo, e um contador por nó (ou mesmo um
+ * compartilhado) não chega ao cliente em ordem. Os frames saem só com
+ * "event" e o replay sempre responde full = true (recarregar).
+ *
+ * Tópico sem nenhum frame há mirrorpage.ws.topic-idle-ms é descartado (0 =
+ * nunca). Quem voltar depois disso recebe full = true no replay; o tópico
+ * recriado começa acima do último seq do antigo, então ninguém confunde a
+ * numeração nova com a velha.
+ */
 @Service
 public class SheetEventBroadcaster {
 
+    private static final Logger log = LoggerFactory.getLogger(SheetEventBroadcaster.class);
+
+    public static final String SEQ_HEADER = "seq";
+    public static final String EVENT_HEADER = "event"; // nome simples do payload
+
+    // Header interno (não vai para o cliente): frame que veio de outro nó
+    public static final String RELAYED_HEADER = "mirrorpageRelayed";
+
     private final SimpMessagingTemplate messagingTemplate;
+    private final long coalesceWindowMs;
+    private final ScheduledExecutorService flusher; // null = sem coalescência
+    private final int replayBuffer;
+    private final boolean sequenced; // false com stomp-relay
+    private final long topicIdleMs;
+    private final ScheduledExecutorService janitor; // null = tópicos nunca saem
+
+    // Estado por tópico (seq, replay, janela)
+    private final Map<String, Topic> topics = new ConcurrentHashMap<>();
 
-    public SheetEventBroadcaster(SimpMessagingTemplate messagingTemplate) {
+    // Maior seq de um tópico já descartado: o recriado começa acima dele
+    private final AtomicLong evictedSeq = new AtomicLong();
+
+    public SheetEventBroadcaster(SimpMessagingTemplate messagingTemplate,
+            @Value("${mirrorpage.ws.coalesce-window-ms:0}") long coalesceWindowMs,
+            @Value("${mirrorpage.ws.replay-buffer:512}") int replayBuffer,
+            @Value("${mirrorpage.ws.broker:simple}") String brokerMode,
+            @Value("${mirrorpage.ws.topic-idle-ms:600000}") long topicIdleMs) {
         this.messagingTemplate = messagingTemplate;
+        this.coalesceWindowMs = coalesceWindowMs;
+        this.replayBuffer = replayBuffer;
+        this.sequenced = !"stomp-relay".equals(brokerMode);
+        this.topicIdleMs = topicIdleMs;
+        if (coalesceWindowMs > 0) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "mirrorpage-ws-coalescer");
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.flusher = null;
+        }
+        if (topicIdleMs > 0) {
+            this.janitor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "mirrorpage-ws-topics");
+                t.setDaemon(true);
+                return t;
+            });
+            long period = Math.max(1000, topicIdleMs / 4);
+            janitor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            this.janitor = null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (janitor != null) {
+            janitor.shutdownNow();
+        }
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        topics.forEach(this::flush); // o que ainda estava na janela
     }
 
     public void sendCellChange(SheetCellChangeEvent ev) {
         String topic = "/topic/sheet/" + toTopic(ev.path());
-        System.out.println("[WS] CellChangeEvent para " + topic
-                + " path=" + ev.path()
-                + " row=" + ev.row()
-                + " col=" + ev.col()
-                + " value=" + ev.value());
-        messagingTemplate.convertAndSend(topic, ev);
+        publish(topic, ev.path(), ev);
+    }
+
+    public void sendCellsChanged(SheetCellsChangedEvent ev) {
+        // Uma única mensagem para o lote inteiro
+        String topic = "/topic/sheet/" + toTopic(ev.path());
+        publish(topic, ev.path(), ev);
     }
 
     public void sendRowInserted(SheetRowInsertedEvent ev) {
         // **DICA IMPORTANTE**:
         // use OUTRO tópico para não misturar JSON de tipos diferentes
         String topic = "/topic/sheet/" + toTopic(ev.path());
-        System.out.println("[WS] RowInsertedEvent para " + topic
-                + " path=" + ev.path()
-                + " afterRow=" + ev.afterRow());
-        messagingTemplate.convertAndSend(topic, ev);
+        publish(topic, ev.path(), ev);
     }
 
     public void sendRowMoved(RowMoveEvent ev) {
         String topic = "/topic/sheet/" + toTopic(ev.path());
-        System.out.println("[WS] RowMovedEvent para " + topic
-                + " path=" + ev.path()
-                + " from=" + ev.from()
-                + " to=" + ev.to()
-                + " user=" + ev.user());
-        messagingTemplate.convertAndSend(topic, ev);
+        publish(topic, ev.path(), ev);
     }
 
     public void sendRowDeleted(RowDeletedEvent ev) {
         // 1. Define o tópico de destino (mesma lógica dos outros)
         String topic = "/topic/sheet/" + toTopic(ev.path());
 
-        // 2. Log no servidor
-        System.out.println("[WS] RowDeletedEvent para " + topic
-                + " path=" + ev.path()
-                + " row=" + ev.modelRow()
-                + " user=" + ev.user());
+        // 2. Envia o objeto (o Record será serializado para JSON automaticamente)
+        publish(topic, ev.path(), ev);
+    }
+
+    public void sendCellLock(CellLockEvent ev) {
+        String topic = "/topic/sheet/" + toTopic(ev.path());
+        publish(topic, ev.path(), ev);
+    }
+
+    public void sendCellLocks(CellLocksEvent ev) {
+        String topic = "/topic/sheet/" + toTopic(ev.path());
+        publish(topic, ev.path(), ev);
+    }
+
+    /**
+     * Frame de planilha vindo de outro nó (mirrorpage.ws.broker=redis): sai
+     * na hora, com o seq deste nó, e não volta para a ponte.
+     */
+    public void relay(String topic, String path, String type, Object payload) {
+        while (true) {
+            Topic t = topic(topic, path);
+            synchronized (t) {
+                if (t.evicted) {
+                    continue; // descartado agora há pouco: vai no novo
+                }
+                emit(topic, t, type, payload, true);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Frames de outro nó se perderam (fila da ponte cheia, Redis fora) e não
+     * dá para saber de que planilha eram: todo tópico pula um seq e esquece o
+     * replay. O cliente vê o buraco no próximo frame e o replay responde
+     * full = true (recarregar).
+     */
+    public void invalidateReplay() {
+        if (!sequenced) {
+            return;
+        }
+        for (Topic t : topics.values()) {
+            synchronized (t) {
+                t.seq++;
+                t.ring.clear();
+            }
+        }
+    }
+
+    /*──────── Replay ────────*/
+    /**
+     * Frames do tópico da planilha com seq &gt; afterSeq (ver
+     * {@link SheetReplay}).
+     */
+    public SheetReplay replay(String path, long afterSeq) {
+        if (!sequenced) {
+            return new SheetReplay(path, afterSeq, 0, true, List.of());
+        }
+        Topic t = topics.get("/topic/sheet/" + toTopic(path));
+        if (t == null) {
+            // Nada saiu neste tópico desde que o servidor subiu
+            return new SheetReplay(path, afterSeq, 0, afterSeq != 0, List.of());
+        }
+        synchronized (t) {
+            long first = t.ring.isEmpty() ? t.seq + 1 : t.ring.peekFirst().seq();
+            if (afterSeq > t.seq || afterSeq < first - 1) {
+                return new SheetReplay(path, afterSeq, t.seq, true, List.of());
+            }
+            List<SheetReplay.Frame> frames = new ArrayList<>((int) (t.seq - afterSeq));
+            for (SheetReplay.Frame f : t.ring) {
+                if (f.seq() > afterSeq) {
+                    frames.add(f);
+                }
+            }
+            return new SheetReplay(path, afterSeq, t.seq, false, frames);
+        }
+    }
+
+    /*──────── Por tópico: seq, replay e coalescência ────────*/
+    /**
+     * Estado de um tópico. seq numera sem buracos cada frame enviado (header
+     * STOMP "seq"); ring guarda os últimos frames para o replay.
+     *
+     * Coalescência: eventos dentro da janela ficam em events; lastCell aponta,
+     * para cada célula, a posição do último SheetCellChangeEvent e só vale até
+     * o próximo evento estrutural (inserir/mover/remover linha muda os
+     * índices). A escrita substituída vira null e a nova vai para o fim, para
+     * as versões continuarem em ordem.
+     */
+    private static final class Topic {
+
+        final String path;
+        long seq;
+        final ArrayDeque<SheetReplay.Frame> ring = new ArrayDeque<>();
+        long lastUsed = System.currentTimeMillis();
+        boolean evicted;
+
+        final List<Object> events = new ArrayList<>();
+        final Map<Long, Integer> lastCell = new HashMap<>();
+        int live;
+        boolean scheduled;
+        long batches;
+
+        Topic(String path, long firstSeq) {
+            this.path = path;
+            this.seq = firstSeq - 1;
+        }
+
+        void add(Object ev) {
+            if (ev instanceof SheetCellChangeEvent c) {
+                Integer i = lastCell.put(cellKey(c.row(), c.col()), events.size());
+                if (i != null) {
+                    events.set(i, null); // só o valor final interessa
+                    live--;
+                }
+            } else if (ev instanceof SheetCellsChangedEvent lote) {
+                // Célula escrita de novo depois do lote tem que sair depois dele
+                for (CellPatch c : lote.changes()) {
+                    lastCell.remove(cellKey(c.row(), c.col()));
+                }
+            } else if (!(ev instanceof CellLockEvent) && !(ev instanceof CellLocksEvent)) {
+                lastCell.clear(); // estrutural
+            }
+            events.add(ev);
+            live++;
+        }
+
+        List<Object> drain() {
+            List<Object> lote = new ArrayList<>(live);
+            for (Object ev : events) {
+                if (ev != null) {
+                    lote.add(ev);
+                }
+            }
+            events.clear();
+            lastCell.clear();
+            live = 0;
+            scheduled = false;
+            return lote;
+        }
+
+        static long cellKey(int row, int col) {
+            return ((long) row << 32) | (col & 0xffffffffL);
+        }
+    }
+
+    private Topic topic(String topic, String path) {
+        // Mesmo truque dos LeaseIds: um seq de antes de um restart nunca
+        // coincide com um seq novo, então o replay responde full = true. O +2
+        // deixa um buraco depois do tópico descartado (o cliente pede replay)
+        return topics.computeIfAbsent(topic, t -> new Topic(path,
+                Math.max(System.currentTimeMillis() * 1000, evictedSeq.get() + 2)));
+    }
+
+    private void publish(String topic, String path, Object ev) {
+        while (true) {
+            Topic t = topic(topic, path);
+            synchronized (t) {
+                if (t.evicted) {
+                    continue; // descartado agora há pouco: vai no novo
+                }
+                if (flusher == null) {
+                    emit(topic, t, ev.getClass().getSimpleName(), ev, false);
+                    return;
+                }
+                t.add(ev);
+                if (!t.scheduled) {
+                    t.scheduled = true;
+                    flusher.schedule(() -> flush(topic, t), coalesceWindowMs, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Descarta os tópicos sem frame há mais de topicIdleMs (e sem nada na
+     * janela de coalescência). Roda na thread mirrorpage-ws-topics.
+     */
+    void evictIdle() {
+        try {
+            long limite = System.currentTimeMillis() - topicIdleMs;
+            for (Map.Entry<String, Topic> e : topics.entrySet()) {
+                Topic t = e.getValue();
+                synchronized (t) {
+                    if (t.lastUsed > limite || t.scheduled || !t.events.isEmpty()) {
+                        continue;
+                    }
+                    t.evicted = true;
+                    evictedSeq.accumulateAndGet(t.seq, Math::max);
+                    topics.remove(e.getKey(), t);
+                }
+            }
+        } catch (Exception e) {
+            // Nunca deixa a thread morrer
+            log.error("Falha ao descartar tópicos parados", e);
+        }
+    }
+
+    // Roda na thread do flusher (ou no shutdown)
+    private void flush(String topic, Topic t) {
+        try {
+            synchronized (t) {
+                if (t.events.isEmpty()) {
+                    return;
+                }
+                List<Object> lote = t.drain();
+                if (lote.size() == 1) {
+                    emit(topic, t, lote.get(0).getClass().getSimpleName(), lote.get(0), false);
+                    return;
+                }
+                List<SheetEventBatch.Entry> entries = new ArrayList<>(lote.size());
+                for (Object ev : lote) {
+                    entries.add(new SheetEventBatch.Entry(ev.getClass().getSimpleName(), ev));
+                }
+                long batch = ++t.batches;
+                log.debug("SheetEventBatch para {} batch={} events={}", topic, batch, entries.size());
+                emit(topic, t, SheetEventBatch.class.getSimpleName(),
+                        new SheetEventBatch(t.path, batch, entries), false);
+            }
+        } catch (Exception e) {
+            // Nunca deixa a thread do flusher morrer
+            log.error("Falha ao enviar a janela de " + topic, e);
+        }
+    }
 
-        // 3. Envia o objeto (o Record será serializado para JSON automaticamente)
-        messagingTemplate.convertAndSend(topic, ev);
+    /**
+     * Numera, guarda no ring e envia. Sempre com o monitor do tópico: seq e
+     * ordem de envio são a mesma coisa.
+     */
+    private void emit(String topic, Topic t, String type, Object payload, boolean relayed) {
+        SimpMessageHeaderAccessor acc = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        t.lastUsed = System.currentTimeMillis();
+        if (sequenced) {
+            long seq = ++t.seq;
+            if (replayBuffer > 0) {
+                if (t.ring.size() >= replayBuffer) {
+                    t.ring.pollFirst();
+                }
+                t.ring.addLast(new SheetReplay.Frame(seq, type, payload));
+            }
+            acc.setNativeHeader(SEQ_HEADER, Long.toString(seq));
+        }
+        acc.setNativeHeader(EVENT_HEADER, type);
+        if (relayed) {
+            acc.setHeader(RELAYED_HEADER, Boolean.TRUE);
+        }
+        acc.setLeaveMutable(true);
+        log.debug("{} para {}", type, topic);
+        messagingTemplate.convertAndSend(topic, payload, acc.getMessageHeaders());
     }
 
     private String toTopic(String path) {
@@ -13,12 +13,17 @@ public class CellLock {
     public final int col;
     public final String owner;
     public final Instant expiresAt;
+    // Id do lease: nasce na concessão e se mantém nas renovações/deslocamentos.
+    // Sempre crescente, serve de fencing token: escrita com um id que não é
+    // mais o do lock vigente da célula é recusada
+    public final long leaseId;
 
-    public CellLock(String path, int row, int col, String owner, Instant expiresAt) {
+    public CellLock(String path, int row, int col, String owner, Instant expiresAt, long leaseId) {
         this.path = path;
         this.row = row;
         this.col = col;
         this.owner = owner;
         this.expiresAt = expiresAt;
+        this.leaseId = leaseId;
     }
 }
@@ -0,0 +1,16 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+/**
+ * Célula de um lote que já está travada por outro usuário.
+ */
+public record CellLockConflict(
+        int row,
+        int col,
+        String owner
+        ) {
+
+}
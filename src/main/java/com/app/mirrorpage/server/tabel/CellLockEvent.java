@@ -0,0 +1,16 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+/**
+ * Lock de célula adquirido/liberado (vai no tópico da planilha).
+ */
+public record CellLockEvent(
+        String path,
+        int row,       // índice do MODEL (JTable)
+        int col,
+        String owner,  // dono do lock (no release: quem segurava)
+        boolean locked // false = célula livre de novo
+) {}
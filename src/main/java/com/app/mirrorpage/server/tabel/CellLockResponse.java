@@ -11,7 +11,8 @@ public record CellLockResponse(
         int row,
         int col,
         String owner,
-        Instant expiresAtMillis
+        Instant expiresAtMillis,
+        long leaseId     // heartbeat e fencing token do save-cell/patch
         ) {
 
 }
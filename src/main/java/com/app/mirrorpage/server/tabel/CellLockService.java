@@ -4,172 +4,183 @@
  */
 package com.app.mirrorpage.server.tabel;
 
-import java.time.Duration;
-import java.time.Instant;
+import com.app.mirrorpage.server.service.LeaseStats;
+import com.app.mirrorpage.server.service.SheetEventBroadcaster;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 import org.springframework.stereotype.Service;
 
+/**
+ * Locks de célula: ponto de entrada do resto do servidor.
+ *
+ * Quem guarda os locks é o {@link CellLockStore} configurado
+ * (mirrorpage.lock.store): em memória para um nó só, ou Redis para vários
+ * servidores atrás de um balanceador.
+ *
+ * Toda mudança de lock pedida por um cliente vira evento no tópico da
+ * planilha ({@link CellLockEvent} / {@link CellLocksEvent}); com o
+ * {@link #snapshot(String)} o cliente monta o estado inicial e depois só
+ * acompanha os eventos. Deslocamentos (inserir/remover linha) não geram
+ * evento: o cliente já desloca com o RowInserted/RowDeleted.
+ */
 @Service
 public class CellLockService {
 
-    // Mapa em memória: chave -> lock
-    private final Map<String, CellLock> locks = new ConcurrentHashMap<>();
+    private final CellLockStore store;
+    private final SheetEventBroadcaster broadcaster;
 
-    // TTL do lock (ex: 2 minutos)
-    private static final Duration TTL = Duration.ofMinutes(2);
+    public CellLockService(CellLockStore store, SheetEventBroadcaster broadcaster) {
+        this.store = store;
+        this.broadcaster = broadcaster;
+    }
 
-    private String key(String path, int row, int col) {
+    public CellLock acquire(String path, int row, int col, String owner) {
         // 🔴 MUITO IMPORTANTE: usar SEMPRE o mesmo path que vem do controller
         // Nada de normalizar diferente em cada lugar.
-        return "lock:" + path + ":r" + row + ":c" + col;
-    }
-
-    public synchronized CellLock acquire(String path, int row, int col, String owner) {
-        String k = key(path, row, col);
-        Instant now = Instant.now();
-
-        CellLock existing = locks.get(k);
-
-        if (existing != null) {
-            // se expirou, remove e cria novo
-            if (existing.expiresAt.isBefore(now)) {
-                locks.remove(k);
-            } else {
-                // se NÃO expirou e o dono é outro -> não concede lock
-                if (!existing.owner.equals(owner)) {
-                    return null;
-                }
-                // se é o MESMO dono, renova TTL
-                CellLock renewed = new CellLock(path, row, col, owner, now.plus(TTL));
-                locks.put(k, renewed);
-                return renewed;
-            }
+        CellLockStore.Acquired result = store.acquire(path, row, col, owner);
+        // Renovação (mesmo lease) não muda nada para os outros clientes
+        if (result.granted() && !result.renewed()) {
+            broadcaster.sendCellLock(new CellLockEvent(path, row, col, owner, true));
         }
+        return result.lock();
+    }
 
-        // cria novo lock
-        CellLock lock = new CellLock(path, row, col, owner, now.plus(TTL));
-        locks.put(k, lock);
+    public boolean isOwner(String path, int row, int col, String user) {
+        CellLock lock = get(path, row, col);
+        return lock != null && lock.owner.equals(user);
+    }
 
-        System.out.printf("[LOCK SERVICE] acquire OK key=%s owner=%s expires=%s%n",
-                k, owner, lock.expiresAt);
+    public String getOwner(String path, int row, int col) {
+        CellLock lock = get(path, row, col);
+        return (lock != null) ? lock.owner : null;
+    }
 
-        return lock;
+    /**
+     * Lock vigente da célula (null se livre ou expirado). Sem log.
+     */
+    public CellLock get(String path, int row, int col) {
+        return store.get(path, row, col);
     }
 
-    public boolean isOwner(String path, int row, int col, String user) {
-        String k = key(path, row, col);
-        CellLock lock = locks.get(k);
-        if (lock == null) {
-            return false;
-        }
-        if (lock.expiresAt.isBefore(Instant.now())) {
-            locks.remove(k);
-            return false;
+    /**
+     * Locks vigentes da planilha numa resposta só (GET /api/sheet/locks).
+     */
+    public SheetLocksSnapshot snapshot(String path) {
+        List<CellLock> locks = store.locksOf(path);
+        List<String> owners = new ArrayList<>();
+        Map<String, Integer> indice = new HashMap<>();
+        List<int[]> cells = new ArrayList<>(locks.size());
+        for (CellLock lock : locks) {
+            int dono = indice.computeIfAbsent(lock.owner, o -> {
+                owners.add(o);
+                return owners.size() - 1;
+            });
+            cells.add(new int[]{lock.row, lock.col, dono});
         }
-        return lock.owner.equals(user);
+        return new SheetLocksSnapshot(path, owners, cells);
     }
 
-    public String getOwner(String path, int row, int col) {
-        String k = key(path, row, col);
-        CellLock lock = locks.get(k);
-        if (lock == null) {
-            System.out.printf("[LOCK SERVICE] getOwner key=%s -> null%n", k);
-            return null;
-        }
-        if (lock.expiresAt.isBefore(Instant.now())) {
-            locks.remove(k);
-            System.out.printf("[LOCK SERVICE] getOwner key=%s -> expirado%n", k);
-            return null;
-        }
-        System.out.printf("[LOCK SERVICE] getOwner key=%s -> %s%n", k, lock.owner);
-        return lock.owner;
+    /**
+     * Primeiro lock vigente de OUTRO usuário nas linhas [fromRow..toRow] da
+     * planilha, ou null se o intervalo está livre para "user".
+     */
+    public CellLock findForeignLock(String path, int fromRow, int toRow, String user) {
+        return store.findForeignLock(path, fromRow, toRow, user);
     }
 
     public void release(String path, int row, int col, String user) {
-        String k = key(path, row, col);
-        CellLock lock = locks.get(k);
-        if (lock == null) {
-            System.out.printf("[LOCK SERVICE] release key=%s -> já não existe%n", k);
-            return;
+        CellLock lock = store.release(path, row, col, user);
+        if (lock != null) {
+            broadcaster.sendCellLock(new CellLockEvent(path, row, col, lock.owner, false));
         }
-        if (!lock.owner.equals(user)) {
-            System.out.printf("[LOCK SERVICE] release key=%s negado. owner=%s user=%s%n",
-                    k, lock.owner, user);
-            return;
+    }
+
+    /**
+     * Trava o bloco [fromRow..toRow] x [fromCol..toCol] inteiro ou nada.
+     */
+    public CellLockStore.BatchLock acquireRange(String path, int fromRow, int toRow, int fromCol, int toCol,
+            String owner) {
+        CellLockStore.BatchLock result = store.acquireRange(path, fromRow, toRow, fromCol, toCol, owner);
+        if (result.ok() && !result.granted().isEmpty()) {
+            broadcaster.sendCellLocks(new CellLocksEvent(path, owner, true, cellsOf(result.granted())));
         }
-        locks.remove(k);
-        System.out.printf("[LOCK SERVICE] release OK key=%s owner=%s%n", k, user);
+        return result;
     }
 
     /**
-     * (Opcional) Move os locks matematicamente (Se não quiser usar o clearAll).
+     * Libera as células do bloco que são de "user" (as dos outros ficam).
+     *
+     * @return os locks liberados
+     */
+    public List<CellLock> releaseRange(String path, int fromRow, int toRow, int fromCol, int toCol, String user) {
+        List<CellLock> liberados = store.releaseRange(path, fromRow, toRow, fromCol, toCol, user);
+        if (!liberados.isEmpty()) {
+            broadcaster.sendCellLocks(new CellLocksEvent(path, user, false, cellsOf(liberados)));
+        }
+        return liberados;
+    }
+
+    /**
+     * Desloca os locks de uma planilha depois de inserir/remover linhas.
      *
      * @param path
      * @param startRow
      * @param amount
      */
-    public synchronized void shiftLocks(String path, int startRow, int amount) {
-        List<CellLock> locksToMove = new ArrayList<>();
-        List<String> keysToRemove = new ArrayList<>();
-
-        locks.forEach((key, lock) -> {
-            if (lock.path.equals(path) && lock.row >= startRow) {
-                locksToMove.add(lock);
-                keysToRemove.add(key);
-            }
-        });
-
-        keysToRemove.forEach(locks::remove);
-
-        for (CellLock oldLock : locksToMove) {
-            int newRow = oldLock.row + amount;
-            if (newRow < 0) {
-                continue;
-            }
-
-            String newKey = key(oldLock.path, newRow, oldLock.col);
-
-            // Cria nova instância com a linha atualizada
-            CellLock newLock = new CellLock(oldLock.path, newRow, oldLock.col, oldLock.owner, oldLock.expiresAt);
-            locks.put(newKey, newLock);
-
-            System.out.println("[LOCK SERVICE] Shift: Lock movido Row " + oldLock.row + " -> " + newRow);
-        }
+    public void shiftLocks(String path, int startRow, int amount) {
+        store.shiftLocks(path, startRow, amount);
     }
 
     /**
-     * Libera todos os locks segurados por um usuário específico.É chamado pelo
-     * ActiveUserManager quando detecta desconexão. * @param username O nome do
-     * usuário que desconectou.
+     * Libera todos os locks segurados por um usuário específico. É chamado
+     * pelo ActiveUserManager quando detecta desconexão.
      *
-     * @param username
+     * @param username O nome do usuário que desconectou.
      */
-    public synchronized void releaseAllLocksByUser(String username) {
-        if (username == null) {
-            return;
+    public void releaseAllLocksByUser(String username) {
+        // Um evento por planilha em que o usuário tinha lock
+        Map<String, List<CellLock>> porPlanilha = new LinkedHashMap<>();
+        for (CellLock lock : store.releaseAll(username)) {
+            porPlanilha.computeIfAbsent(lock.path, p -> new ArrayList<>()).add(lock);
         }
+        porPlanilha.forEach((path, locks)
+                -> broadcaster.sendCellLocks(new CellLocksEvent(path, username, false, cellsOf(locks))));
+    }
 
-        // Lista temporária para guardar as chaves a remover
-        List<String> keysToRemove = new ArrayList<>();
+    /**
+     * Heartbeat: renova os locks vigentes de "owner" que estão em "ids" (vazio
+     * ou null = nenhum).
+     *
+     * @return os leaseIds renovados
+     */
+    public Set<Long> renew(String owner, Collection<Long> ids) {
+        return store.renew(owner, ids);
+    }
 
-        // 1. Varre o mapa procurando locks desse usuário
-        locks.forEach((key, lock) -> {
-            // Verifica o dono (owner). 
-            // OBS: Se CellLock for 'record', use lock.owner(). Se for classe com campo publico, use lock.owner
-            if (lock.owner.equals(username)) {
-                keysToRemove.add(key);
-            }
-        });
+    /**
+     * Remove os locks vencidos (chamado pelo LeaseSweeper).
+     *
+     * @return os locks removidos (para avisar os clientes)
+     */
+    public List<CellLock> sweepExpired() {
+        return store.sweepExpired();
+    }
 
-        // 2. Remove efetivamente
-        if (!keysToRemove.isEmpty()) {
-            keysToRemove.forEach(locks::remove);
+    public LeaseStats stats() {
+        return store.stats();
+    }
 
-            System.out.printf("[LOCK SERVICE] Auto-Release: Liberados %d locks do usuário '%s' por desconexão.%n",
-                    keysToRemove.size(), username);
+    /*──────── Helpers ────────*/
+    private static List<int[]> cellsOf(List<CellLock> locks) {
+        List<int[]> cells = new ArrayList<>(locks.size());
+        for (CellLock lock : locks) {
+            cells.add(new int[]{lock.row, lock.col});
         }
+        return cells;
     }
 }
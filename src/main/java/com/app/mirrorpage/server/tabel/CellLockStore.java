@@ -0,0 +1,115 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+import com.app.mirrorpage.server.service.LeaseStats;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Onde os locks de célula ficam guardados. Escolhido por
+ * mirrorpage.lock.store:
+ * <ul>
+ * <li>memory — {@link InMemoryCellLockStore}, no heap (um único nó)</li>
+ * <li>redis — {@link RedisCellLockStore}, compartilhado entre nós</li>
+ * </ul>
+ *
+ * Cada operação é atômica por si só. Lock vencido conta como livre; só sai
+ * de vez no {@link #sweepExpired()}.
+ */
+public interface CellLockStore {
+
+    /**
+     * Resultado de um lock em lote: ou tudo concedido, ou só os conflitos.
+     */
+    record BatchLock(List<CellLock> granted, List<CellLockConflict> conflicts) {
+
+        public boolean ok() {
+            return conflicts.isEmpty();
+        }
+    }
+
+    /**
+     * Resultado de um acquire: o lock (null se outro usuário tem a célula) e
+     * se foi só renovação de um lease que "owner" já tinha. Vem da mesma
+     * operação atômica que concedeu, então não tem corrida com outro nó.
+     */
+    record Acquired(CellLock lock, boolean renewed) {
+
+        public boolean granted() {
+            return lock != null;
+        }
+    }
+
+    /**
+     * Trava (ou renova, se já é de "owner") a célula.
+     */
+    Acquired acquire(String path, int row, int col, String owner);
+
+    /**
+     * Lock vigente da célula (null se livre ou expirado).
+     */
+    CellLock get(String path, int row, int col);
+
+    /**
+     * Locks vigentes da planilha (ordem de linha).
+     */
+    List<CellLock> locksOf(String path);
+
+    /**
+     * Primeiro lock vigente de OUTRO usuário nas linhas [fromRow..toRow]
+     * (ordem de linha/coluna), ou null se o intervalo está livre.
+     */
+    CellLock findForeignLock(String path, int fromRow, int toRow, String user);
+
+    /**
+     * @return o lock liberado, ou null se a célula não era de "user"
+     */
+    CellLock release(String path, int row, int col, String user);
+
+    /**
+     * Trava o bloco [fromRow..toRow] x [fromCol..toCol] inteiro ou nada.
+     */
+    BatchLock acquireRange(String path, int fromRow, int toRow, int fromCol, int toCol, String owner);
+
+    /**
+     * Libera as células do bloco que são de "user".
+     *
+     * @return os locks liberados
+     */
+    List<CellLock> releaseRange(String path, int fromRow, int toRow, int fromCol, int toCol, String user);
+
+    /**
+     * Linhas >= startRow andam "amount"; com amount negativo os locks das
+     * linhas removidas são descartados.
+     */
+    void shiftLocks(String path, int startRow, int amount);
+
+    /**
+     * Libera todos os locks de um usuário (desconexão).
+     *
+     * @return os locks liberados
+     */
+    List<CellLock> releaseAll(String username);
+
+    /**
+     * Heartbeat: renova os locks vigentes de "owner" que estão em "ids",
+     * mantendo o leaseId. "ids" vazio/null não renova nada: cada aba manda os
+     * próprios leases, e uma aba viva não segura os de uma aba que caiu.
+     *
+     * @return os leaseIds renovados
+     */
+    Set<Long> renew(String owner, Collection<Long> ids);
+
+    /**
+     * Remove os locks vencidos.
+     *
+     * @return os locks removidos (para avisar os clientes)
+     */
+    List<CellLock> sweepExpired();
+
+    LeaseStats stats();
+}
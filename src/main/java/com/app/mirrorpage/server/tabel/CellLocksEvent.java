@@ -0,0 +1,18 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+import java.util.List;
+
+/**
+ * Várias células de um mesmo dono travadas/liberadas de uma vez (lock em
+ * lote, unlock em lote, desconexão). Uma mensagem só no tópico da planilha.
+ */
+public record CellLocksEvent(
+        String path,
+        String owner,
+        boolean locked,
+        List<int[]> cells // [row, col] (row = índice do MODEL)
+) {}
@@ -0,0 +1,26 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Uma célula alterada dentro de um patch (row = índice do MODEL da JTable).
+ *
+ * A célula tem que estar travada pelo usuário. token (opcional) = leaseId do
+ * lock com que o cliente editou; se o lock da célula já é outro, a escrita é
+ * recusada. Não volta nos eventos.
+ */
+public record CellPatch(
+        int row,
+        int col,
+        String value,
+        @JsonInclude(JsonInclude.Include.NON_NULL) Long token
+        ) {
+
+    public CellPatch(int row, int col, String value) {
+        this(row, col, value, null);
+    }
+}
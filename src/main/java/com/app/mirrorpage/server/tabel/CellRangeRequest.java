@@ -0,0 +1,21 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+/**
+ * Bloco de células para lock/unlock em lote (índices do MODEL).
+ *
+ * Só fromRow é obrigatório: sem toRow vale uma linha; sem fromCol/toCol vale
+ * a linha inteira (todas as colunas do cabeçalho).
+ */
+public record CellRangeRequest(
+        String path,
+        int fromRow,
+        Integer toRow,
+        Integer fromCol,
+        Integer toCol
+        ) {
+
+}
@@ -8,7 +8,8 @@ public record CellSaveRequest(
         String path,
         int row,
         int col,
-        String value
+        String value,
+        Long token // opcional: leaseId do lock (fencing token)
         ) {
 
 }
@@ -0,0 +1,70 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+/**
+ * Codec das linhas do CSV das planilhas (separador ';', sem aspas).
+ *
+ * Mesmo resultado de {@code line.split(";", -1)} / {@code String.join(";",
+ * cols)}, mas por varredura de offsets: sem regex, sem ArrayList
+ * intermediária e sem String temporária por linha na serialização. Colunas
+ * vazias no fim e linhas curtas são preservadas como estão.
+ */
+public final class CsvRowCodec {
+
+    public static final char SEP = ';';
+
+    private CsvRowCodec() {
+    }
+
+    /**
+     * Quantidade de colunas da linha (separadores + 1), sem alocar.
+     */
+    public static int columnCount(CharSequence line) {
+        int n = 1;
+        for (int i = 0, len = line.length(); i < len; i++) {
+            if (line.charAt(i) == SEP) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Quebra a linha em colunas. O array já nasce no tamanho certo.
+     */
+    public static String[] split(String line) {
+        String[] cols = new String[columnCount(line)];
+        int start = 0;
+        for (int i = 0; i < cols.length - 1; i++) {
+            int end = line.indexOf(SEP, start);
+            cols[i] = line.substring(start, end);
+            start = end + 1;
+        }
+        cols[cols.length - 1] = line.substring(start);
+        return cols;
+    }
+
+    /**
+     * Escreve as colunas separadas por ';' direto no StringBuilder.
+     */
+    public static StringBuilder appendTo(StringBuilder sb, String[] cols) {
+        for (int i = 0; i < cols.length; i++) {
+            if (i > 0) {
+                sb.append(SEP);
+            }
+            sb.append(cols[i]);
+        }
+        return sb;
+    }
+
+    public static String join(String[] cols) {
+        int len = cols.length;
+        for (String c : cols) {
+            len += c.length();
+        }
+        return appendTo(new StringBuilder(len), cols).toString();
+    }
+}
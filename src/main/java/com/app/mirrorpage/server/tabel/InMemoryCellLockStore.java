@@ -0,0 +1,698 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+import com.app.mirrorpage.server.service.LeaseIds;
+import com.app.mirrorpage.server.service.LeaseStats;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Locks de célula em memória (mirrorpage.lock.store=memory, o padrão). Só
+ * serve para um nó: com vários servidores use o {@link RedisCellLockStore}.
+ *
+ * Tabela hierárquica: path -> linha (ordenada, para consultas por intervalo)
+ * -> coluna -> lock. Um índice secundário guarda as células de cada dono,
+ * para liberar tudo de um usuário sem varrer o servidor inteiro.
+ *
+ * Sem monitor global: acquire/renovação/release/expiração são um compute
+ * atômico na célula (o {@link CellLock} é imutável; trocar o objeto é a
+ * operação). Cada planilha tem um read/write lock só para o deslocamento de
+ * linhas: as operações de célula e as consultas pegam a parte de leitura
+ * (várias ao mesmo tempo) e o shiftLocks pega a de escrita, para ninguém ver
+ * a planilha com metade dos locks deslocados.
+ *
+ * Lock vencido é tratado como livre na hora, mas só sai da tabela pelo
+ * {@link #sweepExpired()} (chamado pelo LeaseSweeper), que percorre um índice
+ * ordenado por prazo e custa O(vencidos).
+ *
+ * Linha que fica sem locks sai da tabela, e a planilha também quando fica
+ * vazia (ver {@link #prune}): o mapa só guarda o que está travado.
+ *
+ * Cada concessão ganha um leaseId; o cliente mantém os locks vivos mandando
+ * só os ids no heartbeat ({@link #renew}), sem repetir os acquires. O TTL
+ * vem de mirrorpage.lease.ttl-seconds.
+ */
+@Component
+@ConditionalOnProperty(name = "mirrorpage.lock.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryCellLockStore implements CellLockStore {
+
+    private static final Logger log = LoggerFactory.getLogger(InMemoryCellLockStore.class);
+
+    // path -> tabela da planilha
+    private final Map<String, SheetTable> sheets = new ConcurrentHashMap<>();
+
+    // dono -> células que ele trava
+    private final Map<String, Set<CellRef>> byOwner = new ConcurrentHashMap<>();
+
+    // Índice de expiração: ordenado por prazo. Renovar só acrescenta uma
+    // entrada nova; a antiga é descartada quando vencer (o lock já é outro)
+    private final ConcurrentSkipListSet<Expiry> expiries = new ConcurrentSkipListSet<>();
+    private final AtomicLong expirySeq = new AtomicLong();
+    private final AtomicLong sweptTotal = new AtomicLong();
+
+    // TTL do lock (mirrorpage.lease.ttl-seconds)
+    private final Duration ttl;
+    private final LeaseIds leaseIds;
+
+    private record CellRef(String path, int row, int col) {
+
+    }
+
+    private record Expiry(long at, long seq, CellLock lock) implements Comparable<Expiry> {
+
+        @Override
+        public int compareTo(Expiry o) {
+            int c = Long.compare(at, o.at);
+            return (c != 0) ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    private static final class SheetTable {
+
+        // linha -> coluna -> lock
+        final ConcurrentSkipListMap<Integer, Map<Integer, CellLock>> rows = new ConcurrentSkipListMap<>();
+        final ReentrantReadWriteLock shift = new ReentrantReadWriteLock();
+
+        // Saiu de "sheets" (ficou vazia): quem ainda tinha a referência pega
+        // a tabela nova. Só muda com o lock exclusivo
+        volatile boolean removed;
+
+        // Alguma linha ficou vazia e não deu para podar na hora (planilha
+        // ocupada): o sweepExpired termina o serviço
+        volatile boolean prunePending;
+
+        Map<Integer, CellLock> cols(int row) {
+            return rows.computeIfAbsent(row, r -> new ConcurrentHashMap<>());
+        }
+    }
+
+    public InMemoryCellLockStore(LeaseIds leaseIds,
+            @Value("${mirrorpage.lease.ttl-seconds:30}") long ttlSeconds) {
+        this.leaseIds = leaseIds;
+        this.ttl = Duration.ofSeconds(ttlSeconds);
+    }
+
+    @Override
+    public Acquired acquire(String path, int row, int col, String owner) {
+        // 🔴 MUITO IMPORTANTE: usar SEMPRE o mesmo path que vem do controller
+        // Nada de normalizar diferente em cada lugar.
+        Instant now = Instant.now();
+        CellLock[] result = new CellLock[1];
+        boolean[] novo = new boolean[1];
+
+        SheetTable table = lockTable(path, false);
+        Lock read = table.shift.readLock();
+        try {
+            table.cols(row).compute(col, (c, existing) -> {
+                // se NÃO expirou e o dono é outro -> não concede lock
+                if (existing != null && !existing.expiresAt.isBefore(now)
+                        && !existing.owner.equals(owner)) {
+                    return existing;
+                }
+                // livre, expirado ou do MESMO dono (renova TTL, mesmo lease).
+                // Lease do mesmo dono que já venceu não é renovado: ganha id
+                // novo, senão uma escrita antiga com o id vencido voltaria a valer
+                boolean renova = existing != null && existing.owner.equals(owner)
+                        && !existing.expiresAt.isBefore(now);
+                CellLock lock = new CellLock(path, row, col, owner, now.plus(ttl),
+                        renova ? existing.leaseId : leaseIds.next());
+                if (!renova) {
+                    if (existing != null) {
+                        unindex(existing);
+                    }
+                    index(lock);
+                    novo[0] = true;
+                }
+                result[0] = lock;
+                return lock;
+            });
+        } finally {
+            read.unlock();
+        }
+
+        if (result[0] != null) {
+            schedule(result[0]);
+        }
+        if (novo[0]) {
+            log.debug("acquire OK path={} row={} col={} owner={} expires={}",
+                    path, row, col, owner, result[0].expiresAt);
+        }
+        return new Acquired(result[0], result[0] != null && !novo[0]);
+    }
+
+    /**
+     * Lock vigente da célula (null se livre ou expirado). Sem log.
+     */
+    @Override
+    public CellLock get(String path, int row, int col) {
+        SheetTable table = sheets.get(path);
+        if (table == null) {
+            return null;
+        }
+        Lock read = table.shift.readLock();
+        read.lock();
+        try {
+            Map<Integer, CellLock> cols = table.rows.get(row);
+            CellLock lock = (cols != null) ? cols.get(col) : null;
+            if (lock == null) {
+                return null;
+            }
+            // Vencido = livre (o varredor tira da tabela)
+            return lock.expiresAt.isBefore(Instant.now()) ? null : lock;
+        } finally {
+            read.unlock();
+        }
+    }
+
+    @Override
+    public List<CellLock> locksOf(String path) {
+        SheetTable table = sheets.get(path);
+        if (table == null) {
+            return List.of();
+        }
+        Instant now = Instant.now();
+        List<CellLock> vigentes = new ArrayList<>();
+        Lock read = table.shift.readLock();
+        read.lock();
+        try {
+            for (Map<Integer, CellLock> cols : table.rows.values()) {
+                for (CellLock lock : cols.values()) {
+                    if (!lock.expiresAt.isBefore(now)) {
+                        vigentes.add(lock);
+                    }
+                }
+            }
+        } finally {
+            read.unlock();
+        }
+        return vigentes;
+    }
+
+    /**
+     * Primeiro lock vigente de OUTRO usuário nas linhas [fromRow..toRow] da
+     * planilha (em ordem de linha/coluna), ou null se o intervalo está livre
+     * para "user". Uma única consulta por intervalo no índice de linhas.
+     */
+    @Override
+    public CellLock findForeignLock(String path, int fromRow, int toRow, String user) {
+        SheetTable table = sheets.get(path);
+        if (table == null || fromRow > toRow) {
+            return null;
+        }
+        Instant now = Instant.now();
+        Lock read = table.shift.readLock();
+        read.lock();
+        try {
+            for (Map<Integer, CellLock> cols : table.rows.subMap(fromRow, true, toRow, true).values()) {
+                CellLock found = null;
+                for (CellLock lock : cols.values()) {
+                    if (!lock.expiresAt.isBefore(now) && !lock.owner.equals(user)
+                            && (found == null || lock.col < found.col)) {
+                        found = lock;
+                    }
+                }
+                if (found != null) {
+                    return found;
+                }
+            }
+            return null;
+        } finally {
+            read.unlock();
+        }
+    }
+
+    @Override
+    public CellLock release(String path, int row, int col, String user) {
+        SheetTable table = sheets.get(path);
+        String[] resultado = {"já não existe"};
+        CellLock[] liberado = new CellLock[1];
+        if (table != null) {
+            Lock read = table.shift.readLock();
+            read.lock();
+            try {
+                Map<Integer, CellLock> cols = table.rows.get(row);
+                if (cols != null) {
+                    cols.computeIfPresent(col, (c, lock) -> {
+                        if (!lock.owner.equals(user)) {
+                            resultado[0] = "negado. owner=" + lock.owner + " user=" + user;
+                            return lock;
+                        }
+                        unindex(lock);
+                        liberado[0] = lock;
+                        resultado[0] = "OK owner=" + user;
+                        return null;
+                    });
+                }
+            } finally {
+                read.unlock();
+            }
+            if (liberado[0] != null) {
+                prune(path, table, List.of(row));
+            }
+        }
+        log.debug("release path={} row={} col={} {}", path, row, col, resultado[0]);
+        return liberado[0];
+    }
+
+    /**
+     * Trava o bloco [fromRow..toRow] x [fromCol..toCol] inteiro ou nada.
+     *
+     * Usa o lock exclusivo da planilha (o mesmo do shift) só pelo tempo do
+     * lote: ninguém trava uma célula do bloco no meio da operação, então dois
+     * editores pegando a mesma linha nunca ficam com metade cada um.
+     */
+    @Override
+    public BatchLock acquireRange(String path, int fromRow, int toRow, int fromCol, int toCol, String owner) {
+        Instant now = Instant.now();
+
+        SheetTable table = lockTable(path, true);
+        Lock write = table.shift.writeLock();
+        try {
+            // 1. Conflitos (tudo ou nada)
+            List<CellLockConflict> conflicts = new ArrayList<>();
+            for (Map<Integer, CellLock> cols : table.rows.subMap(fromRow, true, toRow, true).values()) {
+                for (CellLock lock : cols.values()) {
+                    if (lock.col >= fromCol && lock.col <= toCol
+                            && !lock.expiresAt.isBefore(now) && !lock.owner.equals(owner)) {
+                        conflicts.add(new CellLockConflict(lock.row, lock.col, lock.owner));
+                    }
+                }
+            }
+            if (!conflicts.isEmpty()) {
+                return new BatchLock(List.of(), conflicts);
+            }
+
+            // 2. Concede / renova todas as células
+            List<CellLock> granted = new ArrayList<>((toRow - fromRow + 1) * (toCol - fromCol + 1));
+            for (int row = fromRow; row <= toRow; row++) {
+                Map<Integer, CellLock> cols = table.cols(row);
+                for (int col = fromCol; col <= toCol; col++) {
+                    CellLock anterior = cols.get(col);
+                    boolean renova = anterior != null && anterior.owner.equals(owner)
+                            && !anterior.expiresAt.isBefore(now);
+                    CellLock lock = new CellLock(path, row, col, owner, now.plus(ttl),
+                            renova ? anterior.leaseId : leaseIds.next());
+                    cols.put(col, lock);
+                    if (!renova) {
+                        if (anterior != null) {
+                            unindex(anterior);
+                        }
+                        index(lock);
+                    }
+                    schedule(lock);
+                    granted.add(lock);
+                }
+            }
+            log.debug("acquireRange OK path={} rows={}..{} cols={}..{} owner={}",
+                    path, fromRow, toRow, fromCol, toCol, owner);
+            return new BatchLock(granted, List.of());
+        } finally {
+            write.unlock();
+        }
+    }
+
+    /**
+     * Libera as células do bloco que são de "user" (as dos outros ficam).
+     *
+     * @return os locks liberados
+     */
+    @Override
+    public List<CellLock> releaseRange(String path, int fromRow, int toRow, int fromCol, int toCol, String user) {
+        SheetTable table = sheets.get(path);
+        if (table == null) {
+            return List.of();
+        }
+        List<CellLock> liberados = new ArrayList<>();
+        Set<Integer> linhas = new HashSet<>();
+        Lock read = table.shift.readLock();
+        read.lock();
+        try {
+            for (Map<Integer, CellLock> cols : table.rows.subMap(fromRow, true, toRow, true).values()) {
+                for (CellLock candidato : cols.values()) {
+                    if (candidato.col < fromCol || candidato.col > toCol || !candidato.owner.equals(user)) {
+                        continue;
+                    }
+                    cols.computeIfPresent(candidato.col, (c, lock) -> {
+                        if (!lock.owner.equals(user)) {
+                            return lock;
+                        }
+                        unindex(lock);
+                        liberados.add(lock);
+                        linhas.add(lock.row);
+                        return null;
+                    });
+                }
+            }
+        } finally {
+            read.unlock();
+        }
+        prune(path, table, linhas);
+        log.debug("releaseRange path={} rows={}..{} liberados={} user={}",
+                path, fromRow, toRow, liberados.size(), user);
+        return liberados;
+    }
+
+    /**
+     * Desloca os locks de uma planilha depois de inserir/remover linhas.
+     *
+     * Linhas >= startRow andam "amount". Com amount negativo (linhas
+     * removidas) os locks das próprias linhas removidas,
+     * [startRow..startRow-amount-1], são descartados.
+     *
+     * @param path
+     * @param startRow
+     * @param amount
+     */
+    @Override
+    public void shiftLocks(String path, int startRow, int amount) {
+        SheetTable table = sheets.get(path);
+        if (table == null || amount == 0) {
+            return;
+        }
+
+        // Exclusivo só nesta planilha: as outras seguem normalmente
+        Lock write = table.shift.writeLock();
+        write.lock();
+        try {
+            // Só o trecho afetado desta planilha
+            NavigableMap<Integer, Map<Integer, CellLock>> tail = table.rows.tailMap(startRow, true);
+            List<CellLock> locksToMove = new ArrayList<>();
+            for (Map<Integer, CellLock> cols : tail.values()) {
+                locksToMove.addAll(cols.values());
+            }
+            tail.clear();
+            for (CellLock lock : locksToMove) {
+                unindex(lock);
+            }
+
+            int removidasAte = startRow - amount; // exclusivo; só vale p/ amount < 0
+            for (CellLock oldLock : locksToMove) {
+                if (amount < 0 && oldLock.row < removidasAte) {
+                    continue; // a linha do lock deixou de existir
+                }
+                int newRow = oldLock.row + amount;
+                if (newRow < 0) {
+                    continue;
+                }
+
+                // Cria nova instância com a linha atualizada
+                CellLock newLock = new CellLock(oldLock.path, newRow, oldLock.col, oldLock.owner,
+                        oldLock.expiresAt, oldLock.leaseId);
+                CellLock ocupante = table.cols(newRow).put(newLock.col, newLock);
+                if (ocupante != null) {
+                    unindex(ocupante);
+                }
+                index(newLock);
+                schedule(newLock);
+            }
+            log.debug("Shift: {} locks a partir da linha {} ({})", locksToMove.size(), startRow, amount);
+
+            // Aproveita o lock exclusivo para limpar linhas que ficaram vazias
+            table.rows.values().removeIf(Map::isEmpty);
+            dropIfEmpty(path, table);
+        } finally {
+            write.unlock();
+        }
+    }
+
+    @Override
+    public List<CellLock> releaseAll(String username) {
+        List<CellLock> liberados = new ArrayList<>();
+        if (username == null) {
+            return liberados;
+        }
+
+        // Pega direto no índice do dono (nada de varrer todos os locks)
+        Set<CellRef> refs = byOwner.remove(username);
+        if (refs == null || refs.isEmpty()) {
+            return liberados;
+        }
+
+        for (CellRef ref : refs) {
+            SheetTable table = sheets.get(ref.path());
+            if (table == null) {
+                continue;
+            }
+            boolean[] removido = {false};
+            Lock read = table.shift.readLock();
+            read.lock();
+            try {
+                Map<Integer, CellLock> cols = table.rows.get(ref.row());
+                if (cols != null) {
+                    cols.computeIfPresent(ref.col(), (c, lock) -> {
+                        if (!lock.owner.equals(username)) {
+                            return lock;
+                        }
+                        unindex(lock);
+                        liberados.add(lock);
+                        removido[0] = true;
+                        return null;
+                    });
+                }
+            } finally {
+                read.unlock();
+            }
+            if (removido[0]) {
+                prune(ref.path(), table, List.of(ref.row()));
+            }
+        }
+
+        log.debug("Auto-Release: liberados {} locks do usuário '{}' por desconexão", liberados.size(), username);
+        return liberados;
+    }
+
+    /**
+     * Heartbeat: empurra o prazo dos locks vigentes de "owner" que estão em
+     * "ids" para agora + TTL, mantendo o leaseId. "ids" vazio/null não renova
+     * nada: cada aba manda só os próprios leases.
+     *
+     * Lock vencido não é renovado: a célula já pode ter outro dono.
+     *
+     * @return os leaseIds renovados
+     */
+    @Override
+    public Set<Long> renew(String owner, Collection<Long> ids) {
+        Set<Long> renovados = new HashSet<>();
+        Set<CellRef> refs = (owner != null) ? byOwner.get(owner) : null;
+        if (refs == null || ids == null || ids.isEmpty()) {
+            return renovados;
+        }
+        Instant now = Instant.now();
+        Instant novoPrazo = now.plus(ttl);
+
+        for (CellRef ref : List.copyOf(refs)) {
+            SheetTable table = sheets.get(ref.path());
+            if (table == null) {
+                continue;
+            }
+            CellLock[] renovado = new CellLock[1];
+            Lock read = table.shift.readLock();
+            read.lock();
+            try {
+                Map<Integer, CellLock> cols = table.rows.get(ref.row());
+                if (cols != null) {
+                    cols.computeIfPresent(ref.col(), (c, lock) -> {
+                        if (!lock.owner.equals(owner) || lock.expiresAt.isBefore(now)
+                                || !ids.contains(lock.leaseId)) {
+                            return lock;
+                        }
+                        renovado[0] = new CellLock(lock.path, lock.row, lock.col, lock.owner,
+                                novoPrazo, lock.leaseId);
+                        return renovado[0];
+                    });
+                }
+            } finally {
+                read.unlock();
+            }
+            if (renovado[0] != null) {
+                schedule(renovado[0]);
+                renovados.add(renovado[0].leaseId);
+            }
+        }
+        return renovados;
+    }
+
+    /**
+     * Remove da tabela os locks vencidos. Só olha as entradas do índice de
+     * expiração cujo prazo já passou.
+     *
+     * @return os locks removidos (para avisar os clientes)
+     */
+    @Override
+    public List<CellLock> sweepExpired() {
+        long now = System.currentTimeMillis();
+        List<CellLock> removidos = new ArrayList<>();
+        Expiry e;
+        while ((e = expiries.pollFirst()) != null) {
+            if (e.at() >= now) {
+                expiries.add(e); // ainda não venceu: devolve e para
+                break;
+            }
+            if (removeIfExpired(e.lock(), now)) {
+                removidos.add(e.lock());
+            }
+        }
+        sweptTotal.addAndGet(removidos.size());
+
+        // Poda o que ficou para trás (aqui pode esperar o lock exclusivo)
+        for (Map.Entry<String, SheetTable> s : sheets.entrySet()) {
+            SheetTable table = s.getValue();
+            if (!table.prunePending) {
+                continue;
+            }
+            Lock write = table.shift.writeLock();
+            write.lock();
+            try {
+                table.prunePending = false;
+                table.rows.values().removeIf(Map::isEmpty);
+                dropIfEmpty(s.getKey(), table);
+            } finally {
+                write.unlock();
+            }
+        }
+        return removidos;
+    }
+
+    @Override
+    public LeaseStats stats() {
+        Instant now = Instant.now();
+        int live = 0;
+        int expired = 0;
+        for (SheetTable table : sheets.values()) {
+            for (Map<Integer, CellLock> cols : table.rows.values()) {
+                for (CellLock lock : cols.values()) {
+                    if (lock.expiresAt.isBefore(now)) {
+                        expired++;
+                    } else {
+                        live++;
+                    }
+                }
+            }
+        }
+        return new LeaseStats(live, expired, sweptTotal.get());
+    }
+
+    /*──────── Helpers ────────*/
+    private void schedule(CellLock lock) {
+        expiries.add(new Expiry(lock.expiresAt.toEpochMilli(), expirySeq.incrementAndGet(), lock));
+    }
+
+    // Remove o lock só se ainda for o mesmo objeto (não renovado/deslocado)
+    private boolean removeIfExpired(CellLock lock, long now) {
+        SheetTable table = sheets.get(lock.path);
+        if (table == null) {
+            return false;
+        }
+        boolean[] removido = {false};
+        Lock read = table.shift.readLock();
+        read.lock();
+        try {
+            Map<Integer, CellLock> cols = table.rows.get(lock.row);
+            if (cols != null) {
+                cols.computeIfPresent(lock.col, (c, atual) -> {
+                    if (atual != lock || atual.expiresAt.toEpochMilli() >= now) {
+                        return atual;
+                    }
+                    unindex(atual);
+                    removido[0] = true;
+                    return null;
+                });
+            }
+        } finally {
+            read.unlock();
+        }
+        if (removido[0]) {
+            prune(lock.path, table, List.of(lock.row));
+        }
+        return removido[0];
+    }
+
+    /**
+     * Tabela da planilha (cria se preciso) já com o lock de deslocamento
+     * pedido. Se a tabela foi podada entre o computeIfAbsent e o lock, pega a
+     * nova: nada é travado numa tabela que já saiu de "sheets".
+     */
+    private SheetTable lockTable(String path, boolean exclusive) {
+        while (true) {
+            SheetTable table = sheets.computeIfAbsent(path, p -> new SheetTable());
+            Lock lock = exclusive ? table.shift.writeLock() : table.shift.readLock();
+            lock.lock();
+            if (!table.removed) {
+                return table;
+            }
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tira da tabela as linhas que ficaram sem locks (e a planilha, se ficou
+     * vazia). Só com o lock exclusivo, para ninguém estar no meio de um
+     * acquire numa linha que some; sem esperar: se a planilha está ocupada,
+     * fica para o próximo sweepExpired. Chamar sem o lock de leitura.
+     */
+    private void prune(String path, SheetTable table, Collection<Integer> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        Lock write = table.shift.writeLock();
+        if (!write.tryLock()) {
+            table.prunePending = true;
+            return;
+        }
+        try {
+            for (Integer row : rows) {
+                table.rows.computeIfPresent(row, (r, cols) -> cols.isEmpty() ? null : cols);
+            }
+            dropIfEmpty(path, table);
+        } finally {
+            write.unlock();
+        }
+    }
+
+    // Com o lock exclusivo da tabela
+    private void dropIfEmpty(String path, SheetTable table) {
+        if (table.rows.isEmpty() && sheets.remove(path, table)) {
+            table.removed = true;
+        }
+    }
+
+    private void index(CellLock lock) {
+        CellRef ref = new CellRef(lock.path, lock.row, lock.col);
+        byOwner.compute(lock.owner, (o, refs) -> {
+            if (refs == null) {
+                refs = ConcurrentHashMap.newKeySet();
+            }
+            refs.add(ref);
+            return refs;
+        });
+    }
+
+    private void unindex(CellLock lock) {
+        CellRef ref = new CellRef(lock.path, lock.row, lock.col);
+        byOwner.computeIfPresent(lock.owner, (o, refs) -> {
+            refs.remove(ref);
+            return refs.isEmpty() ? null : refs;
+        });
+    }
+}
@@ -0,0 +1,531 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+import com.app.mirrorpage.server.service.LeaseStats;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+/**
+ * Locks de célula no Redis (mirrorpage.lock.store=redis): vários servidores
+ * atrás de um balanceador enxergam os mesmos locks.
+ *
+ * Chaves (prefixo mirrorpage.lock.redis-prefix):
+ *
+ * <pre>
+ * cell:&lt;path&gt;         hash  "row:col" -> "dono \t expiraEm(ms) \t leaseId"
+ * cell:rows:&lt;path&gt;    zset  "row:col" (score = row), para as consultas por intervalo
+ * cell:lease          hash  leaseId -> "path \t row:col"
+ * cell:exp            zset  leaseId (score = expiraEm), para o varredor e o stats
+ * cell:owner:&lt;dono&gt;  set   planilhas em que o dono tem lock
+ * seq                 contador dos leaseIds (compartilhado com os arquivos)
+ * </pre>
+ *
+ * Toda operação que lê e escreve é um script Lua (atômico no Redis); as
+ * consultas (get, findForeignLock, stats) são leituras simples. Intervalos de
+ * linhas (findForeignLock, acquireRange, releaseRange, shiftLocks) vão pelo
+ * índice cell:rows, sem ler a planilha inteira. O "agora" é o
+ * relógio do nó que chama: os servidores precisam de relógio sincronizado
+ * (NTP). Os scripts montam chaves a partir do path, então é para Redis único
+ * ou com Sentinel, não Cluster.
+ */
+@Component
+@ConditionalOnProperty(name = "mirrorpage.lock.store", havingValue = "redis")
+public class RedisCellLockStore implements CellLockStore {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisCellLockStore.class);
+
+    private static final String PRELUDE = """
+            local P = ARGV[1]
+            local now = tonumber(ARGV[2])
+            local function parse(v)
+              local o, e, id = string.match(v, '^(.*)\\t(%d+)\\t(%d+)$')
+              return o, tonumber(e), id
+            end
+            local function cell(f)
+              local r, c = string.match(f, '^(%d+):(%d+)$')
+              return tonumber(r), tonumber(c)
+            end
+            local function grant(path, field, owner, exp, id)
+              redis.call('HSET', P .. 'cell:' .. path, field, owner .. '\\t' .. exp .. '\\t' .. id)
+              redis.call('ZADD', P .. 'cell:rows:' .. path, cell(field), field)
+              redis.call('HSET', P .. 'cell:lease', id, path .. '\\t' .. field)
+              redis.call('ZADD', P .. 'cell:exp', exp, id)
+              redis.call('SADD', P .. 'cell:owner:' .. owner, path)
+            end
+            local function drop(path, field, id)
+              redis.call('HDEL', P .. 'cell:' .. path, field)
+              redis.call('ZREM', P .. 'cell:rows:' .. path, field)
+              redis.call('HDEL', P .. 'cell:lease', id)
+              redis.call('ZREM', P .. 'cell:exp', id)
+            end
+            """;
+
+    // ARGV: P, now, path, row, col, owner, ttlMs -> {ok, dono, expiraEm, leaseId, renovou}
+    private static final DefaultRedisScript<List<String>> ACQUIRE = listScript("""
+            local path, owner = ARGV[3], ARGV[6]
+            local field = ARGV[4] .. ':' .. ARGV[5]
+            local cur = redis.call('HGET', P .. 'cell:' .. path, field)
+            local id = nil
+            if cur then
+              local o, e, i = parse(cur)
+              if o ~= owner and e >= now then
+                return {'0', o, tostring(e), i, '0'}
+              end
+              if o == owner and e >= now then id = i else drop(path, field, i) end
+            end
+            local renewed = id and '1' or '0'
+            if not id then id = tostring(redis.call('INCR', P .. 'seq')) end
+            local exp = now + tonumber(ARGV[7])
+            grant(path, field, owner, exp, id)
+            return {'1', owner, tostring(exp), id, renewed}
+            """);
+
+    // ARGV: P, now, path, row, col, user -> valor liberado ou nil
+    private static final DefaultRedisScript<String> RELEASE = stringScript("""
+            local field = ARGV[4] .. ':' .. ARGV[5]
+            local cur = redis.call('HGET', P .. 'cell:' .. ARGV[3], field)
+            if not cur then return false end
+            local o, e, i = parse(cur)
+            if o ~= ARGV[6] then return false end
+            drop(ARGV[3], field, i)
+            return cur
+            """);
+
+    // ARGV: P, now, path, fromRow, toRow, fromCol, toCol, owner, ttlMs
+    // -> {'0', "row \t col \t dono"...} ou {'1', expiraEm, "row:col:leaseId"...}
+    private static final DefaultRedisScript<List<String>> ACQUIRE_RANGE = listScript("""
+            local path, owner = ARGV[3], ARGV[8]
+            local r1, r2 = tonumber(ARGV[4]), tonumber(ARGV[5])
+            local c1, c2 = tonumber(ARGV[6]), tonumber(ARGV[7])
+            local key = P .. 'cell:' .. path
+            local existing = {}
+            local conflicts = {'0'}
+            for _, f in ipairs(redis.call('ZRANGEBYSCORE', P .. 'cell:rows:' .. path, r1, r2)) do
+              local r, c = cell(f)
+              local v = redis.call('HGET', key, f)
+              if v and c >= c1 and c <= c2 then
+                existing[f] = v
+                local o, e = parse(v)
+                if o ~= owner and e >= now then
+                  conflicts[#conflicts + 1] = r .. '\\t' .. c .. '\\t' .. o
+                end
+              end
+            end
+            if #conflicts > 1 then return conflicts end
+            local exp = now + tonumber(ARGV[9])
+            local out = {'1', tostring(exp)}
+            for r = r1, r2 do
+              for c = c1, c2 do
+                local field = r .. ':' .. c
+                local cur = existing[field]
+                local id = nil
+                if cur then
+                  local o, e, i = parse(cur)
+                  if o == owner and e >= now then id = i else drop(path, field, i) end
+                end
+                if not id then id = tostring(redis.call('INCR', P .. 'seq')) end
+                grant(path, field, owner, exp, id)
+                out[#out + 1] = field .. ':' .. id
+              end
+            end
+            return out
+            """);
+
+    // ARGV: P, now, path, fromRow, toRow, fromCol, toCol, user -> {"row:col \t valor"...}
+    private static final DefaultRedisScript<List<String>> RELEASE_RANGE = listScript("""
+            local path, user = ARGV[3], ARGV[8]
+            local r1, r2 = tonumber(ARGV[4]), tonumber(ARGV[5])
+            local c1, c2 = tonumber(ARGV[6]), tonumber(ARGV[7])
+            local key = P .. 'cell:' .. path
+            local out = {}
+            for _, f in ipairs(redis.call('ZRANGEBYSCORE', P .. 'cell:rows:' .. path, r1, r2)) do
+              local _, c = cell(f)
+              local v = redis.call('HGET', key, f)
+              if v and c >= c1 and c <= c2 then
+                local o, e, i = parse(v)
+                if o == user then
+                  drop(path, f, i)
+                  out[#out + 1] = f .. '\\t' .. v
+                end
+              end
+            end
+            return out
+            """);
+
+    // ARGV: P, now, path, startRow, amount -> locks deslocados
+    private static final DefaultRedisScript<String> SHIFT = stringScript("""
+            local path = ARGV[3]
+            local start, amount = tonumber(ARGV[4]), tonumber(ARGV[5])
+            local key = P .. 'cell:' .. path
+            local rkey = P .. 'cell:rows:' .. path
+            local moving = {}
+            for _, f in ipairs(redis.call('ZRANGEBYSCORE', rkey, start, '+inf')) do
+              local r, c = cell(f)
+              local v = redis.call('HGET', key, f)
+              if v then moving[#moving + 1] = {r, c, v} end
+              redis.call('HDEL', key, f)
+              redis.call('ZREM', rkey, f)
+            end
+            local removedUpTo = start - amount
+            for _, m in ipairs(moving) do
+              local r, c, v = m[1], m[2], m[3]
+              local _, _, i = parse(v)
+              local nr = r + amount
+              if (amount < 0 and r < removedUpTo) or nr < 0 then
+                redis.call('HDEL', P .. 'cell:lease', i)
+                redis.call('ZREM', P .. 'cell:exp', i)
+              else
+                local field = nr .. ':' .. c
+                local occ = redis.call('HGET', key, field)
+                if occ then
+                  local _, _, oi = parse(occ)
+                  redis.call('HDEL', P .. 'cell:lease', oi)
+                  redis.call('ZREM', P .. 'cell:exp', oi)
+                end
+                redis.call('HSET', key, field, v)
+                redis.call('ZADD', rkey, nr, field)
+                redis.call('HSET', P .. 'cell:lease', i, path .. '\\t' .. field)
+              end
+            end
+            return tostring(#moving)
+            """);
+
+    // ARGV: P, now, owner -> {"path \t row:col \t valor"...}
+    private static final DefaultRedisScript<List<String>> RELEASE_ALL = listScript("""
+            local owner = ARGV[3]
+            local okey = P .. 'cell:owner:' .. owner
+            local out = {}
+            for _, path in ipairs(redis.call('SMEMBERS', okey)) do
+              local all = redis.call('HGETALL', P .. 'cell:' .. path)
+              for k = 1, #all, 2 do
+                local o, e, i = parse(all[k + 1])
+                if o == owner then
+                  drop(path, all[k], i)
+                  out[#out + 1] = path .. '\\t' .. all[k] .. '\\t' .. all[k + 1]
+                end
+              end
+            end
+            redis.call('DEL', okey)
+            return out
+            """);
+
+    // ARGV: P, now, owner, ttlMs, leaseIds... -> leaseIds renovados. Vai
+    // direto em cada lease pelo índice cell:lease
+    private static final DefaultRedisScript<List<String>> RENEW = listScript("""
+            local owner = ARGV[3]
+            local exp = now + tonumber(ARGV[4])
+            local out = {}
+            for k = 5, #ARGV do
+              local ref = redis.call('HGET', P .. 'cell:lease', ARGV[k])
+              if ref then
+                local path, field = string.match(ref, '^(.*)\\t([^\\t]+)$')
+                local key = P .. 'cell:' .. path
+                local cur = redis.call('HGET', key, field)
+                if cur then
+                  local o, e, i = parse(cur)
+                  if o == owner and e >= now and i == ARGV[k] then
+                    redis.call('HSET', key, field, o .. '\\t' .. exp .. '\\t' .. i)
+                    redis.call('ZADD', P .. 'cell:exp', exp, i)
+                    out[#out + 1] = i
+                  end
+                end
+              end
+            end
+            return out
+            """);
+
+    // ARGV: P, now, limite -> {"path \t row:col \t valor"...} dos vencidos removidos
+    private static final DefaultRedisScript<List<String>> SWEEP = listScript("""
+            local ids = redis.call('ZRANGEBYSCORE', P .. 'cell:exp', '-inf', '(' .. ARGV[2],
+                'LIMIT', 0, tonumber(ARGV[3]))
+            local out = {}
+            for _, id in ipairs(ids) do
+              local loc = redis.call('HGET', P .. 'cell:lease', id)
+              local removed = false
+              if loc then
+                local path, field = string.match(loc, '^(.*)\\t([^\\t]+)$')
+                local cur = redis.call('HGET', P .. 'cell:' .. path, field)
+                if cur then
+                  local _, _, i = parse(cur)
+                  if i == id then
+                    drop(path, field, id)
+                    out[#out + 1] = path .. '\\t' .. field .. '\\t' .. cur
+                    removed = true
+                  end
+                end
+              end
+              if not removed then
+                redis.call('HDEL', P .. 'cell:lease', id)
+                redis.call('ZREM', P .. 'cell:exp', id)
+              end
+            end
+            return out
+            """);
+
+    private static final int SWEEP_BATCH = 1000;
+
+    private final StringRedisTemplate redis;
+    private final String prefix;
+    private final Duration ttl;
+    private final AtomicLong sweptTotal = new AtomicLong();
+
+    public RedisCellLockStore(StringRedisTemplate redis,
+            @Value("${mirrorpage.lock.redis-prefix:mirrorpage:lock:}") String prefix,
+            @Value("${mirrorpage.lease.ttl-seconds:30}") long ttlSeconds) {
+        this.redis = redis;
+        this.prefix = prefix;
+        this.ttl = Duration.ofSeconds(ttlSeconds);
+        log.info("Locks de célula no Redis (prefixo {})", prefix);
+    }
+
+    @Override
+    public Acquired acquire(String path, int row, int col, String owner) {
+        List<String> r = run(ACQUIRE, path, String.valueOf(row), String.valueOf(col), owner,
+                String.valueOf(ttl.toMillis()));
+        if (!"1".equals(r.get(0))) {
+            return new Acquired(null, false);
+        }
+        CellLock lock = new CellLock(path, row, col, owner,
+                Instant.ofEpochMilli(Long.parseLong(r.get(2))), Long.parseLong(r.get(3)));
+        boolean renewed = "1".equals(r.get(4));
+        if (!renewed) {
+            log.debug("acquire OK path={} row={} col={} owner={} expires={}",
+                    path, row, col, owner, lock.expiresAt);
+        }
+        return new Acquired(lock, renewed);
+    }
+
+    @Override
+    public CellLock get(String path, int row, int col) {
+        Object v = redis.opsForHash().get(prefix + "cell:" + path, row + ":" + col);
+        if (v == null) {
+            return null;
+        }
+        CellLock lock = toLock(path, row + ":" + col, (String) v);
+        // Vencido = livre (o varredor tira do Redis)
+        return lock.expiresAt.isBefore(Instant.now()) ? null : lock;
+    }
+
+    @Override
+    public List<CellLock> locksOf(String path) {
+        Instant now = Instant.now();
+        List<CellLock> vigentes = new ArrayList<>();
+        for (CellLock lock : allLocksOf(path)) {
+            if (!lock.expiresAt.isBefore(now)) {
+                vigentes.add(lock);
+            }
+        }
+        vigentes.sort(Comparator.comparingInt((CellLock l) -> l.row).thenComparingInt(l -> l.col));
+        return vigentes;
+    }
+
+    @Override
+    public CellLock findForeignLock(String path, int fromRow, int toRow, String user) {
+        if (fromRow > toRow) {
+            return null;
+        }
+        // Só as células do intervalo, pelo índice de linhas
+        Set<String> fields = redis.opsForZSet().rangeByScore(prefix + "cell:rows:" + path, fromRow, toRow);
+        if (fields == null || fields.isEmpty()) {
+            return null;
+        }
+        List<Object> chaves = new ArrayList<>(fields);
+        List<Object> valores = redis.opsForHash().multiGet(prefix + "cell:" + path, chaves);
+        Instant now = Instant.now();
+        CellLock found = null;
+        for (int k = 0; k < chaves.size(); k++) {
+            Object v = valores.get(k);
+            if (v == null) {
+                continue;
+            }
+            CellLock lock = toLock(path, (String) chaves.get(k), (String) v);
+            if (lock.expiresAt.isBefore(now) || lock.owner.equals(user)) {
+                continue;
+            }
+            if (found == null || lock.row < found.row || (lock.row == found.row && lock.col < found.col)) {
+                found = lock;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public CellLock release(String path, int row, int col, String user) {
+        String v = redis.execute(RELEASE, List.of(), args(path, String.valueOf(row), String.valueOf(col), user));
+        log.debug("release path={} row={} col={} {}", path, row, col,
+                (v != null) ? "OK owner=" + user : "negado ou já não existe. user=" + user);
+        return (v != null) ? toLock(path, row + ":" + col, v) : null;
+    }
+
+    @Override
+    public BatchLock acquireRange(String path, int fromRow, int toRow, int fromCol, int toCol, String owner) {
+        List<String> r = run(ACQUIRE_RANGE, path, String.valueOf(fromRow), String.valueOf(toRow),
+                String.valueOf(fromCol), String.valueOf(toCol), owner, String.valueOf(ttl.toMillis()));
+        if (!"1".equals(r.get(0))) {
+            List<CellLockConflict> conflicts = new ArrayList<>(r.size() - 1);
+            for (String c : r.subList(1, r.size())) {
+                String[] f = c.split("\t", 3);
+                conflicts.add(new CellLockConflict(Integer.parseInt(f[0]), Integer.parseInt(f[1]), f[2]));
+            }
+            return new BatchLock(List.of(), conflicts);
+        }
+        Instant expiresAt = Instant.ofEpochMilli(Long.parseLong(r.get(1)));
+        List<CellLock> granted = new ArrayList<>(r.size() - 2);
+        for (String g : r.subList(2, r.size())) {
+            String[] f = g.split(":", 3);
+            granted.add(new CellLock(path, Integer.parseInt(f[0]), Integer.parseInt(f[1]), owner,
+                    expiresAt, Long.parseLong(f[2])));
+        }
+        log.debug("acquireRange OK path={} rows={}..{} cols={}..{} owner={}",
+                path, fromRow, toRow, fromCol, toCol, owner);
+        return new BatchLock(granted, List.of());
+    }
+
+    @Override
+    public List<CellLock> releaseRange(String path, int fromRow, int toRow, int fromCol, int toCol, String user) {
+        List<String> r = run(RELEASE_RANGE, path, String.valueOf(fromRow), String.valueOf(toRow),
+                String.valueOf(fromCol), String.valueOf(toCol), user);
+        List<CellLock> liberados = new ArrayList<>(r.size());
+        for (String s : r) {
+            int tab = s.indexOf('\t');
+            liberados.add(toLock(path, s.substring(0, tab), s.substring(tab + 1)));
+        }
+        log.debug("releaseRange path={} rows={}..{} liberados={} user={}",
+                path, fromRow, toRow, liberados.size(), user);
+        return liberados;
+    }
+
+    @Override
+    public void shiftLocks(String path, int startRow, int amount) {
+        if (amount == 0) {
+            return;
+        }
+        String movidos = redis.execute(SHIFT, List.of(),
+                args(path, String.valueOf(startRow), String.valueOf(amount)));
+        log.debug("Shift: {} locks a partir da linha {} ({})", movidos, startRow, amount);
+    }
+
+    @Override
+    public List<CellLock> releaseAll(String username) {
+        if (username == null) {
+            return List.of();
+        }
+        List<CellLock> liberados = fromPathFieldValue(run(RELEASE_ALL, username));
+        log.debug("Auto-Release: liberados {} locks do usuário '{}' por desconexão", liberados.size(), username);
+        return liberados;
+    }
+
+    @Override
+    public Set<Long> renew(String owner, Collection<Long> ids) {
+        Set<Long> renovados = new HashSet<>();
+        if (owner == null || ids == null || ids.isEmpty()) {
+            return renovados;
+        }
+        List<String> a = new ArrayList<>();
+        a.add(owner);
+        a.add(String.valueOf(ttl.toMillis()));
+        for (Long id : ids) {
+            a.add(String.valueOf(id));
+        }
+        for (String id : run(RENEW, a.toArray(String[]::new))) {
+            renovados.add(Long.parseLong(id));
+        }
+        return renovados;
+    }
+
+    @Override
+    public List<CellLock> sweepExpired() {
+        List<CellLock> removidos = new ArrayList<>();
+        List<String> lote;
+        do {
+            lote = run(SWEEP, String.valueOf(SWEEP_BATCH));
+            removidos.addAll(fromPathFieldValue(lote));
+        } while (lote.size() >= SWEEP_BATCH);
+        sweptTotal.addAndGet(removidos.size());
+        return removidos;
+    }
+
+    @Override
+    public LeaseStats stats() {
+        // O índice de expiração já tem todo lease com o prazo como score
+        long now = System.currentTimeMillis();
+        Long live = redis.opsForZSet().count(prefix + "cell:exp", now, Double.POSITIVE_INFINITY);
+        Long expired = redis.opsForZSet().count(prefix + "cell:exp", Double.NEGATIVE_INFINITY, now - 1);
+        return new LeaseStats((live != null) ? live.intValue() : 0, (expired != null) ? expired.intValue() : 0,
+                sweptTotal.get());
+    }
+
+    /*──────── Helpers ────────*/
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static DefaultRedisScript<List<String>> listScript(String body) {
+        return new DefaultRedisScript(PRELUDE + body, List.class);
+    }
+
+    private static DefaultRedisScript<String> stringScript(String body) {
+        return new DefaultRedisScript<>(PRELUDE + body, String.class);
+    }
+
+    // Os dois primeiros ARGV de todo script: prefixo e "agora"
+    private Object[] args(String... rest) {
+        Object[] a = new Object[rest.length + 2];
+        a[0] = prefix;
+        a[1] = String.valueOf(System.currentTimeMillis());
+        System.arraycopy(rest, 0, a, 2, rest.length);
+        return a;
+    }
+
+    private List<String> run(DefaultRedisScript<List<String>> script, String... rest) {
+        List<String> r = redis.execute(script, List.of(), args(rest));
+        return (r != null) ? r : List.of();
+    }
+
+    // Todos os locks da planilha, inclusive vencidos
+    private List<CellLock> allLocksOf(String path) {
+        Map<Object, Object> all = redis.opsForHash().entries(prefix + "cell:" + path);
+        List<CellLock> locks = new ArrayList<>(all.size());
+        all.forEach((field, value) -> locks.add(toLock(path, (String) field, (String) value)));
+        return locks;
+    }
+
+    // "path \t row:col \t dono \t expiraEm \t leaseId"
+    private static List<CellLock> fromPathFieldValue(List<String> linhas) {
+        List<CellLock> locks = new ArrayList<>(linhas.size());
+        for (String s : linhas) {
+            int t1 = s.indexOf('\t');
+            int t2 = s.indexOf('\t', t1 + 1);
+            locks.add(toLock(s.substring(0, t1), s.substring(t1 + 1, t2), s.substring(t2 + 1)));
+        }
+        return locks;
+    }
+
+    // field "row:col", valor "dono \t expiraEm \t leaseId"
+    private static CellLock toLock(String path, String field, String value) {
+        int sep = field.indexOf(':');
+        int t2 = value.lastIndexOf('\t');
+        int t1 = value.lastIndexOf('\t', t2 - 1);
+        return new CellLock(path,
+                Integer.parseInt(field.substring(0, sep)),
+                Integer.parseInt(field.substring(sep + 1)),
+                value.substring(0, t1),
+                Instant.ofEpochMilli(Long.parseLong(value.substring(t1 + 1, t2))),
+                Long.parseLong(value.substring(t2 + 1)));
+    }
+}
@@ -4,5 +4,5 @@
  */
 package com.app.mirrorpage.server.tabel;
 
-public record RowDeletedEvent(String path, int modelRow, String user) {
+public record RowDeletedEvent(String path, int modelRow, String user, String version) {
 }
@@ -8,7 +8,8 @@ public record RowMoveEvent(
         String path, // ex.: "/BDBR/Prelim.csv"
         int from, // índice de origem (model)
         int to, // índice de destino (model)
-        String user
+        String user,
+        String version // versão da planilha depois da alteração (ETag)
         ) {
 
 }
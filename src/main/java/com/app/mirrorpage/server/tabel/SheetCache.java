@@ -0,0 +1,242 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Cache das planilhas abertas, chaveado pelo caminho já resolvido.
+ *
+ * O CSV é lido uma única vez; as edições mexem só no {@link SheetModel}. Com
+ * o WAL ligado cada edição já está segura no log e o CSV só é reescrito na
+ * compactação ({@link SheetWal}); sem WAL, uma thread em segundo plano grava
+ * as planilhas "sujas" a cada intervalo (mirrorpage.sheet.flush-interval-ms).
+ * No desligamento do servidor tudo é gravado.
+ */
+@Service
+public class SheetCache {
+
+    private static final Logger log = LoggerFactory.getLogger(SheetCache.class);
+
+    private final Map<Path, SheetModel> sheets = new ConcurrentHashMap<>();
+    private final SheetLocks sheetLocks;
+    private final SheetStorage storage;
+    private final SheetWal wal;
+    private final ScheduledExecutorService flusher;
+    private final long idleEvictMillis;
+    private final int historySize;
+
+    public SheetCache(SheetLocks sheetLocks, SheetStorage storage, SheetWal wal,
+            @Value("${mirrorpage.sheet.flush-interval-ms:1000}") long flushIntervalMs,
+            @Value("${mirrorpage.sheet.idle-evict-minutes:30}") long idleEvictMinutes,
+            @Value("${mirrorpage.sheet.history-size:500}") int historySize) {
+        this.sheetLocks = sheetLocks;
+        this.historySize = historySize;
+        this.storage = storage;
+        this.wal = wal;
+        this.idleEvictMillis = TimeUnit.MINUTES.toMillis(idleEvictMinutes);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mirrorpage-sheet-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushCycle, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Retorna a planilha (carregando do disco na primeira vez).
+     *
+     * @throws NoSuchFileException se o CSV não existe e não está em memória
+     */
+    public SheetModel get(Path file) throws IOException {
+        SheetModel sheet = getIfExists(file);
+        if (sheet == null) {
+            throw new NoSuchFileException(file.toString());
+        }
+        return sheet;
+    }
+
+    /**
+     * Igual a {@link #get(Path)}, mas retorna null se o arquivo não existe.
+     */
+    public SheetModel getIfExists(Path file) throws IOException {
+        SheetModel sheet = sheets.get(file);
+        if (sheet != null) {
+            return sheet;
+        }
+        // Carga com lock de leitura: nunca lê o CSV no meio de um
+        // evict + regravação (save_file segura o lock de escrita)
+        try (SheetLocks.Held lock = sheetLocks.read(file)) {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            return sheets.computeIfAbsent(file, f -> {
+                try {
+                    return load(f);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Cria uma planilha nova já gravando o CSV. Se já existir, devolve a
+     * existente.
+     */
+    public SheetModel create(Path file, List<String> linhas) throws IOException {
+        SheetModel sheet = getIfExists(file);
+        if (sheet != null) {
+            return sheet;
+        }
+        storage.write(file, String.join(System.lineSeparator(), linhas) + System.lineSeparator());
+        return get(file);
+    }
+
+    /**
+     * Descarta a versão em memória e o log (ex.: o arquivo foi sobrescrito por
+     * fora).
+     */
+    public void evict(Path file) {
+        // io: espera um flush em andamento terminar antes de descartar
+        try (SheetLocks.Held io = sheetLocks.io(file);
+                SheetLocks.Held lock = sheetLocks.write(file)) {
+            SheetModel sheet = sheets.remove(file);
+            if (sheet != null) {
+                closeJournal(sheet);
+                log.debug("Descartada {}", file);
+            }
+        }
+    }
+
+    /**
+     * Grava imediatamente todas as planilhas sujas (compactando os logs).
+     */
+    public void flushAll() {
+        for (SheetModel sheet : sheets.values()) {
+            flush(sheet, true);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushAll();
+        for (SheetModel sheet : sheets.values()) {
+            if (!sheet.isDirty()) {
+                closeJournal(sheet);
+            }
+        }
+        log.info("Flush final concluído ({} planilhas)", sheets.size());
+    }
+
+    /*──────── Helpers ────────*/
+    private SheetModel load(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        List<String> linhas = SheetWal.linesOf(bytes);
+        SheetModel sheet = new SheetModel(file, linhas, historySize);
+        sheet.attachJournal(wal.open(file, SheetWal.crc(bytes)));
+        log.debug("Carregada {} ({} linhas)", file, linhas.size());
+        return sheet;
+    }
+
+    private void flushCycle() {
+        try {
+            long now = System.currentTimeMillis();
+            sheets.forEach((file, sheet) -> {
+                flush(sheet, false);
+                // Planilha limpa e parada há muito tempo sai da memória
+                if (!sheet.isDirty() && now - sheet.lastAccess() > idleEvictMillis) {
+                    try (SheetLocks.Held lock = sheetLocks.write(file)) {
+                        if (!sheet.isDirty() && sheets.remove(file, sheet)) {
+                            closeJournal(sheet);
+                        }
+                    }
+                }
+            });
+        } catch (Exception e) {
+            // Nunca deixa a thread do flusher morrer
+            log.error("Falha no ciclo de flush", e);
+        }
+    }
+
+    private void flush(SheetModel sheet, boolean force) {
+        SheetJournal journal = sheet.journal();
+        if (!sheet.isDirty()) {
+            return;
+        }
+        // Com WAL as edições já estão seguras no log: só compacta no limite
+        if (!force && journal != null && !wal.needsCompaction(journal)) {
+            return;
+        }
+
+        // Lock de I/O do arquivo durante todo o flush: dois flushes da mesma
+        // planilha nunca se cruzam e um save_file/evict não é atropelado por
+        // um flush que já tinha começado
+        try (SheetLocks.Held io = sheetLocks.io(sheet.getFile())) {
+            long upTo;
+            byte[] conteudo;
+            // Lock de leitura: nunca grava uma planilha no meio de uma operação
+            // de várias etapas (ex.: rodapé removido durante o copy-to-final)
+            try (SheetLocks.Held lock = sheetLocks.read(sheet.getFile())) {
+                // Descartada (evict) enquanto esperava: o disco já é de outro
+                if (!sheet.isDirty() || sheets.get(sheet.getFile()) != sheet) {
+                    return;
+                }
+                upTo = sheet.modCount();
+                conteudo = sheet.toText().getBytes(StandardCharsets.UTF_8);
+                if (journal != null) {
+                    // Novo segmento começa a partir do CSV que vamos gravar
+                    journal.rotate(SheetWal.crc(conteudo));
+                }
+            } catch (IOException e) {
+                log.warn("Falha ao rotacionar WAL de {}: {}", sheet.getFile(), e.getMessage());
+                return;
+            }
+            try {
+                // Temporário + fsync + rename: nunca deixa o CSV pela metade
+                storage.write(sheet.getFile(), conteudo);
+                sheet.markFlushed(upTo);
+                if (journal != null) {
+                    journal.dropOld();
+                }
+            } catch (IOException e) {
+                // Continua sujo: tenta de novo no próximo ciclo (o "*.old" fica)
+                log.warn("Falha ao gravar {}: {}", sheet.getFile(), e.getMessage());
+            }
+        }
+    }
+
+    private static void closeJournal(SheetModel sheet) {
+        SheetJournal journal = sheet.journal();
+        if (journal != null) {
+            sheet.attachJournal(null);
+            journal.closeAndDelete();
+        }
+    }
+}
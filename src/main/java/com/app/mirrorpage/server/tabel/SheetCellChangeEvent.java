@@ -9,5 +9,6 @@ public record SheetCellChangeEvent(
         int row,      // índice do MODEL (JTable)
         int col,      // índice da coluna
         String value, // novo valor
-        String user   // usuário que fez a alteração
+        String user,  // usuário que fez a alteração
+        String version // versão da planilha depois da alteração (ETag)
 ) {}
@@ -0,0 +1,17 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+import java.util.List;
+
+/**
+ * Várias células alteradas de uma vez (colar bloco, flush de linha).
+ */
+public record SheetCellsChangedEvent(
+        String path,
+        List<CellPatch> changes, // valores já como ficaram gravados
+        String user,             // usuário que fez a alteração
+        String version           // versão da planilha depois da alteração (ETag)
+) {}
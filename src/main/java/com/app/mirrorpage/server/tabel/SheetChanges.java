@@ -0,0 +1,21 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+import java.util.List;
+
+/**
+ * Resposta do delta sync: ou as operações depois da versão pedida, ou (se o
+ * histórico não alcança) o texto completo.
+ */
+public record SheetChanges(
+        String path,
+        String version,    // versão atual da planilha (ETag)
+        boolean full,      // true = ignore ops, recarregue com "text"
+        List<SheetOp> ops, // índices do ARQUIVO (0 = header)
+        String text        // só quando full = true
+        ) {
+
+}
@@ -0,0 +1,27 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+import java.util.List;
+
+/**
+ * Vários eventos de uma planilha num único frame (coalescência do
+ * SheetEventBroadcaster, mirrorpage.ws.coalesce-window-ms &gt; 0).
+ *
+ * "batch" cresce 1 a cada frame do tópico; os eventos vêm na ordem em que
+ * aconteceram, já sem as escritas repetidas na mesma célula.
+ */
+public record SheetEventBatch(
+        String path,
+        long batch,
+        List<Entry> events
+) {
+
+    /**
+     * type = nome simples do evento (SheetCellChangeEvent, RowMoveEvent...).
+     */
+    public record Entry(String type, Object event) {
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Log append-only (WAL) de UMA planilha.
+ *
+ * Formato texto, uma operação por linha, campos separados por TAB:
+ *
+ * <pre>
+ * #MIRRORPAGE-WAL 1 &lt;crc32 do CSV base&gt; &lt;caminho absoluto do CSV&gt;
+ * SET row col valor
+ * ROW row c0 c1 c2 ...
+ * INS row c0 c1 c2 ...
+ * ADD c0 c1 c2 ...
+ * DEL row
+ * MOV from to
+ * NUM startRow endRow
+ * </pre>
+ *
+ * Na compactação o segmento atual vira "*.old" e começa um segmento novo cujo
+ * cabeçalho guarda o CRC do CSV que está sendo gravado. Assim, na
+ * recuperação, dá para saber se o "*.old" já entrou no CSV ou não.
+ */
+final class SheetJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(SheetJournal.class);
+
+    static final String MAGIC = "#MIRRORPAGE-WAL 1";
+
+    private final Path walFile;
+    private final Path oldFile;
+    private final Path csv;
+    private final boolean fsync;
+
+    private FileChannel ch;
+    private long entries;
+    private long bytes;
+    private long firstAppendAt;
+    private volatile boolean oldPending;
+
+    private SheetJournal(Path walFile, Path csv, boolean fsync) {
+        this.walFile = walFile;
+        this.oldFile = oldFileOf(walFile);
+        this.csv = csv;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Abre um segmento novo (vazio) para o CSV informado.
+     */
+    static SheetJournal create(Path walFile, Path csv, long baseCrc, boolean fsync) throws IOException {
+        SheetJournal j = new SheetJournal(walFile, csv, fsync);
+        j.openSegment(baseCrc);
+        return j;
+    }
+
+    static Path oldFileOf(Path walFile) {
+        return walFile.resolveSibling(walFile.getFileName() + ".old");
+    }
+
+    /**
+     * Grava a operação no fim do log (uma única escrita por linha).
+     *
+     * @throws UncheckedIOException se não conseguir gravar
+     */
+    synchronized void append(SheetOp op) {
+        byte[] line = (encode(op) + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(line);
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            if (fsync) {
+                ch.force(false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Falha ao gravar WAL de " + csv, e);
+        }
+        if (entries == 0) {
+            firstAppendAt = System.currentTimeMillis();
+        }
+        entries++;
+        bytes += line.length;
+    }
+
+    synchronized long entries() {
+        return entries;
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Momento do primeiro append do segmento atual (0 se vazio).
+     */
+    synchronized long firstAppendAt() {
+        return firstAppendAt;
+    }
+
+    /**
+     * Fecha o segmento atual como "*.old" e abre um novo, cuja base é o CSV
+     * com o CRC informado (o que está prestes a ser gravado).
+     *
+     * Se um "*.old" ainda existe (compactação anterior falhou), as operações
+     * do segmento atual são acrescentadas a ele, para nada se perder.
+     */
+    synchronized void rotate(long baseCrc) throws IOException {
+        ch.close();
+        if (Files.exists(oldFile)) {
+            // Copia os bytes como estão, pulando só o cabeçalho
+            String conteudo = Files.readString(walFile, StandardCharsets.UTF_8);
+            String ops = conteudo.substring(conteudo.indexOf('\n') + 1);
+            if (!ops.isEmpty()) {
+                Files.writeString(oldFile, ops, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            }
+            Files.delete(walFile);
+        } else {
+            Files.move(walFile, oldFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        oldPending = true;
+        openSegment(baseCrc);
+    }
+
+    /**
+     * O CSV já contém tudo do "*.old": pode apagar.
+     */
+    void dropOld() throws IOException {
+        Files.deleteIfExists(oldFile);
+        oldPending = false;
+    }
+
+    /**
+     * Existe um "*.old" cujo conteúdo ainda não chegou ao CSV?
+     */
+    boolean hasPendingOld() {
+        return oldPending;
+    }
+
+    /**
+     * Fecha o log e apaga os arquivos (o CSV já está em dia ou foi
+     * descartado).
+     */
+    synchronized void closeAndDelete() {
+        try {
+            ch.close();
+            Files.deleteIfExists(walFile);
+            Files.deleteIfExists(oldFile);
+        } catch (IOException e) {
+            log.warn("Falha ao remover {}: {}", walFile, e.getMessage());
+        }
+    }
+
+    /*──────── Leitura (recuperação) ────────*/
+    /**
+     * Cabeçalho de um segmento.
+     */
+    record Header(long baseCrc, Path csv) {
+    }
+
+    /**
+     * Segmento lido do disco. Uma última linha sem '\n' (append interrompido
+     * por crash) é descartada.
+     */
+    record Segment(Header header, List<SheetOp> ops) {
+    }
+
+    static Segment read(Path file) throws IOException {
+        String content = Files.readString(file, StandardCharsets.UTF_8);
+        String[] linhas = content.split("\n", -1);
+        // O último pedaço ou é "" (arquivo termina em \n) ou é uma linha cortada
+        int completas = linhas.length - 1;
+        if (completas < 1 || !linhas[0].startsWith(MAGIC + "\t")) {
+            throw new IOException("Cabeçalho de WAL inválido: " + file);
+        }
+        String[] h = linhas[0].split("\t", 3);
+        Header header = new Header(Long.parseLong(h[1], 16), Path.of(h[2]));
+
+        List<SheetOp> ops = new ArrayList<>(completas);
+        for (int i = 1; i < completas; i++) {
+            if (!linhas[i].isEmpty()) {
+                ops.add(decode(linhas[i]));
+            }
+        }
+        return new Segment(header, ops);
+    }
+
+    /*──────── Codificação ────────*/
+    static String encode(SheetOp op) {
+        StringBuilder sb = new StringBuilder(64);
+        if (op instanceof SheetOp.SetCell c) {
+            sb.append("SET\t").append(c.row()).append('\t').append(c.col()).append('\t');
+            escape(sb, c.value());
+        } else if (op instanceof SheetOp.SetRow r) {
+            sb.append("ROW\t").append(r.row());
+            appendCols(sb, r.cols());
+        } else if (op instanceof SheetOp.InsertRow r) {
+            sb.append("INS\t").append(r.row());
+            appendCols(sb, r.cols());
+        } else if (op instanceof SheetOp.AddRow r) {
+            sb.append("ADD");
+            appendCols(sb, r.cols());
+        } else if (op instanceof SheetOp.RemoveRow r) {
+            sb.append("DEL\t").append(r.row());
+        } else if (op instanceof SheetOp.MoveRow m) {
+            sb.append("MOV\t").append(m.from()).append('\t').append(m.to());
+        } else if (op instanceof SheetOp.Renumber n) {
+            sb.append("NUM\t").append(n.startRow()).append('\t').append(n.endRow());
+        }
+        return sb.toString();
+    }
+
+    static SheetOp decode(String line) throws IOException {
+        String[] f = line.split("\t", -1);
+        try {
+            return switch (f[0]) {
+                case "SET" ->
+                    new SheetOp.SetCell(Integer.parseInt(f[1]), Integer.parseInt(f[2]), unescape(f[3]));
+                case "ROW" ->
+                    new SheetOp.SetRow(Integer.parseInt(f[1]), cols(f, 2));
+                case "INS" ->
+                    new SheetOp.InsertRow(Integer.parseInt(f[1]), cols(f, 2));
+                case "ADD" ->
+                    new SheetOp.AddRow(cols(f, 1));
+                case "DEL" ->
+                    new SheetOp.RemoveRow(Integer.parseInt(f[1]));
+                case "MOV" ->
+                    new SheetOp.MoveRow(Integer.parseInt(f[1]), Integer.parseInt(f[2]));
+                case "NUM" ->
+                    new SheetOp.Renumber(Integer.parseInt(f[1]), Integer.parseInt(f[2]));
+                default ->
+                    throw new IOException("Operação desconhecida no WAL: " + f[0]);
+            };
+        } catch (RuntimeException e) {
+            throw new IOException("Linha de WAL inválida: " + line, e);
+        }
+    }
+
+    /*──────── Helpers ────────*/
+    private void openSegment(long baseCrc) throws IOException {
+        ch = FileChannel.open(walFile,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        byte[] header = (MAGIC + "\t" + Long.toHexString(baseCrc) + "\t" + csv + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+        ch.write(ByteBuffer.wrap(header));
+        // Cabeçalho sempre forçado: sem ele o segmento não serve para nada
+        ch.force(true);
+        entries = 0;
+        bytes = 0;
+        firstAppendAt = 0;
+    }
+
+    private static void appendCols(StringBuilder sb, String[] cols) {
+        for (String c : cols) {
+            sb.append('\t');
+            escape(sb, c);
+        }
+    }
+
+    private static String[] cols(String[] f, int from) {
+        String[] out = new String[f.length - from];
+        for (int i = from; i < f.length; i++) {
+            out[i - from] = unescape(f[i]);
+        }
+        return out;
+    }
+
+    private static void escape(StringBuilder sb, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\' ->
+                    sb.append("\\\\");
+                case '\t' ->
+                    sb.append("\\t");
+                case '\n' ->
+                    sb.append("\\n");
+                case '\r' ->
+                    sb.append("\\r");
+                default ->
+                    sb.append(c);
+            }
+        }
+    }
+
+    private static String unescape(String s) {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                switch (n) {
+                    case 't' ->
+                        sb.append('\t');
+                    case 'n' ->
+                        sb.append('\n');
+                    case 'r' ->
+                        sb.append('\r');
+                    default ->
+                        sb.append(n);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.springframework.stereotype.Component;
+
+/**
+ * Registro de locks por planilha (chave = caminho já resolvido).
+ *
+ * Edições em planilhas diferentes rodam em paralelo; na mesma planilha as
+ * escritas são serializadas. Uso:
+ *
+ * <pre>
+ * try (SheetLocks.Held h = sheetLocks.write(file)) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * A entrada de uma planilha só existe enquanto alguém segura (ou espera) um
+ * dos locks dela: cada planilha aberta uma vez não fica no mapa para sempre.
+ */
+@Component
+public class SheetLocks {
+
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Locks de uma planilha. users = quantos seguram ou esperam algum deles;
+     * só muda dentro do compute do mapa (atômico por chave).
+     */
+    private static final class Entry {
+
+        final ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+        final ReentrantLock io = new ReentrantLock();
+        int users;
+    }
+
+    public Held read(Path file) {
+        Entry e = retain(file);
+        return acquire(file, e, e.rw.readLock());
+    }
+
+    public Held write(Path file) {
+        Entry e = retain(file);
+        return acquire(file, e, e.rw.writeLock());
+    }
+
+    /**
+     * Lock de gravação do CSV em disco. Separado do lock da planilha para a
+     * gravação (fsync) não segurar as edições; serializa quem grava o mesmo
+     * arquivo (flush do cache, save_file), então uma gravação nunca passa na
+     * frente de outra mais nova.
+     *
+     * Ordem: sempre antes do read/write da mesma planilha.
+     */
+    public Held io(Path file) {
+        Entry e = retain(file);
+        return acquire(file, e, e.io);
+    }
+
+    /**
+     * Lock de escrita em duas planilhas (ex.: Prelim → Final). A ordem de
+     * aquisição é sempre a mesma (ordem dos caminhos) para evitar deadlock
+     * entre duas cópias cruzadas.
+     */
+    public Held write(Path a, Path b) {
+        int cmp = a.compareTo(b);
+        if (cmp == 0) {
+            return write(a);
+        }
+        Path first = cmp < 0 ? a : b;
+        Path second = cmp < 0 ? b : a;
+
+        Held h1 = write(first);
+        try {
+            Held h2 = write(second);
+            return () -> {
+                h2.close();
+                h1.close();
+            };
+        } catch (RuntimeException e) {
+            h1.close();
+            throw e;
+        }
+    }
+
+    /*──────── Helpers ────────*/
+    private Entry retain(Path file) {
+        return entries.compute(file, (f, e) -> {
+            if (e == null) {
+                e = new Entry();
+            }
+            e.users++;
+            return e;
+        });
+    }
+
+    // O último a sair tira a entrada do mapa
+    private void release(Path file, Entry e) {
+        entries.computeIfPresent(file, (f, atual) -> (atual == e && --atual.users == 0) ? null : atual);
+    }
+
+    private Held acquire(Path file, Entry e, Lock lock) {
+        lock.lock();
+        return () -> {
+            lock.unlock();
+            release(file, e);
+        };
+    }
+
+    /**
+     * Lock adquirido; liberado no close() (try-with-resources).
+     */
+    @FunctionalInterface
+    public interface Held extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,17 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+import java.util.List;
+
+/**
+ * Locks vigentes de uma planilha (GET /api/sheet/locks). Compacto: cada dono
+ * aparece uma vez em "owners" e as células apontam para ele pelo índice.
+ */
+public record SheetLocksSnapshot(
+        String path,
+        List<String> owners,
+        List<int[]> cells // [row, col, índice do dono em owners]
+) {}
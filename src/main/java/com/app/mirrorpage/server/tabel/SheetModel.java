@@ -0,0 +1,404 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Planilha residente em memória: cada linha do CSV já vem quebrada em colunas.
+ * As mutações acontecem no próprio objeto (sempre via {@link SheetOp}) e o
+ * {@link SheetCache} grava em disco depois (write-behind / compactação do
+ * WAL).
+ *
+ * Índices são sempre do ARQUIVO (0 = header), não do model da JTable.
+ */
+public class SheetModel {
+
+    // Garante que duas cargas da mesma planilha nunca tenham a mesma época
+    private static final AtomicLong LAST_EPOCH = new AtomicLong();
+
+    /**
+     * Texto completo + a versão a que ele corresponde.
+     */
+    public record Snapshot(String text, String version) {
+    }
+
+    private final Path file;
+    private final List<String[]> rows;
+
+    // Época da carga (muda a cada vez que a planilha é lida do disco): junto
+    // com o modCount forma a versão "época-modCount" usada como ETag
+    private final String epoch;
+
+    // Controle de "sujeira": cada mutação incrementa modCount
+    private long modCount;
+    private long flushedModCount;
+
+    private volatile long lastAccess = System.currentTimeMillis();
+
+    // Texto completo já montado; null depois de qualquer mutação
+    private volatile Snapshot snapshot;
+
+    // Log de operações (null = WAL desligado ou replay em andamento)
+    private SheetJournal journal;
+
+    // Renumeração incremental: linhas que podem ter mudado de posição (ou de
+    // coluna 0) desde o último Renumber. Fora de [sujoDe..sujoAte] a coluna 0
+    // já está certa e não precisa ser reescrita.
+    private int ultimoRenumStart = -1;
+    private int ultimoRenumEnd = -1;
+    private int sujoDe = Integer.MAX_VALUE;
+    private int sujoAte = -1;
+
+    // Últimas operações aplicadas, para o delta sync (0 = sem histórico)
+    private final int historyLimit;
+    private final ArrayDeque<SheetOp> history;
+
+    SheetModel(Path file, List<String> lines) {
+        this(file, lines, 0);
+    }
+
+    SheetModel(Path file, List<String> lines, int historyLimit) {
+        this.historyLimit = Math.max(0, historyLimit);
+        this.history = new ArrayDeque<>(Math.min(this.historyLimit, 1024));
+        this.file = file;
+        this.epoch = Long.toString(LAST_EPOCH.updateAndGet(
+                last -> Math.max(last + 1, System.currentTimeMillis())), 36);
+        this.rows = new ArrayList<>(lines.size() + 16);
+        for (String line : lines) {
+            rows.add(CsvRowCodec.split(line));
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public synchronized int rowCount() {
+        touch();
+        return rows.size();
+    }
+
+    /**
+     * Quantidade de colunas segundo o cabeçalho (linha 0).
+     */
+    public synchronized int columnCount() {
+        touch();
+        return rows.isEmpty() ? 0 : rows.get(0).length;
+    }
+
+    /**
+     * Valor de uma célula ("" se a linha for mais curta que a coluna).
+     */
+    public synchronized String cell(int row, int col) {
+        touch();
+        String[] cols = rows.get(row);
+        return col < cols.length ? cols[col] : "";
+    }
+
+    /**
+     * Cópia das colunas de uma linha.
+     */
+    public synchronized String[] row(int row) {
+        touch();
+        return rows.get(row).clone();
+    }
+
+    /**
+     * Altera uma célula, expandindo a linha se necessário.
+     *
+     * @return o valor gravado
+     */
+    public synchronized String setCell(int row, int col, String value) {
+        apply(new SheetOp.SetCell(row, col, (value != null) ? value : ""));
+        return rows.get(row)[col];
+    }
+
+    public synchronized void setRow(int row, String[] cols) {
+        apply(new SheetOp.SetRow(row, cols.clone()));
+    }
+
+    public synchronized void insertRow(int index, String[] cols) {
+        apply(new SheetOp.InsertRow(index, cols.clone()));
+    }
+
+    public synchronized void addRow(String[] cols) {
+        apply(new SheetOp.AddRow(cols.clone()));
+    }
+
+    public synchronized String[] removeRow(int index) {
+        String[] removed = rows.get(index);
+        apply(new SheetOp.RemoveRow(index));
+        return removed;
+    }
+
+    public synchronized void moveRow(int from, int to) {
+        apply(new SheetOp.MoveRow(from, to));
+    }
+
+    /**
+     * Garante a sequência 1, 2, 3... na coluna 0 das linhas
+     * [startRow..endRow].
+     */
+    public synchronized void renumber(int startRow, int endRow) {
+        apply(new SheetOp.Renumber(startRow, endRow));
+    }
+
+    /**
+     * Aplica uma operação. Os índices são conferidos primeiro; com WAL
+     * ligado, a operação só é gravada no log depois disso e ANTES de mexer na
+     * memória. Assim o log nunca fica com uma operação que não foi aplicada
+     * (e que quebraria o replay), e se o append falhar nada muda.
+     *
+     * @throws IndexOutOfBoundsException se a operação não cabe na planilha
+     */
+    public synchronized void apply(SheetOp op) {
+        check(op);
+        if (journal != null) {
+            journal.append(op);
+        }
+        applyLocal(op);
+        changed();
+        if (historyLimit > 0) {
+            history.addLast(op);
+            if (history.size() > historyLimit) {
+                history.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Operações aplicadas depois da versão informada, em ordem.
+     *
+     * @return lista vazia se já está em dia, ou null se a versão é de outra
+     * carga / já saiu do histórico (o cliente precisa do texto completo)
+     */
+    public synchronized List<SheetOp> changesSince(String version) {
+        touch();
+        int dash = (version != null) ? version.lastIndexOf('-') : -1;
+        if (dash < 0 || !version.substring(0, dash).equals(epoch)) {
+            return null;
+        }
+        long since;
+        try {
+            since = Long.parseLong(version.substring(dash + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        long faltam = modCount - since;
+        if (faltam < 0 || faltam > history.size()) {
+            return null;
+        }
+        List<SheetOp> ops = new ArrayList<>((int) faltam);
+        int pular = history.size() - (int) faltam;
+        for (SheetOp op : history) {
+            if (pular-- > 0) {
+                continue;
+            }
+            ops.add(op);
+        }
+        return ops;
+    }
+
+    /**
+     * Versão atual da planilha ("época-modCount"). Cresce a cada mutação; uma
+     * nova carga do disco troca a época.
+     */
+    public synchronized String version() {
+        return epoch + "-" + modCount;
+    }
+
+    /**
+     * Conteúdo completo, no mesmo formato que Files.write produziria.
+     */
+    public synchronized String toText() {
+        return snapshot().text();
+    }
+
+    /**
+     * Conteúdo completo junto com a versão correspondente.
+     */
+    public synchronized Snapshot snapshot() {
+        touch();
+        Snapshot snap = snapshot;
+        if (snap == null) {
+            String nl = System.lineSeparator();
+            StringBuilder sb = new StringBuilder(rows.size() * 64);
+            for (String[] cols : rows) {
+                CsvRowCodec.appendTo(sb, cols).append(nl);
+            }
+            snap = new Snapshot(sb.toString(), version());
+            snapshot = snap;
+        }
+        return snap;
+    }
+
+    /**
+     * Último snapshot já montado (sem lock), ou null se a planilha mudou desde
+     * então. Sempre é uma versão inteira, nunca uma edição pela metade.
+     */
+    public Snapshot cachedSnapshot() {
+        touch();
+        return snapshot;
+    }
+
+    /*──────── Controle de flush / WAL ────────*/
+    synchronized void attachJournal(SheetJournal journal) {
+        this.journal = journal;
+    }
+
+    synchronized SheetJournal journal() {
+        return journal;
+    }
+
+    synchronized boolean isDirty() {
+        return modCount != flushedModCount;
+    }
+
+    synchronized long modCount() {
+        return modCount;
+    }
+
+    synchronized void markFlushed(long upTo) {
+        if (upTo > flushedModCount) {
+            flushedModCount = upTo;
+        }
+    }
+
+    long lastAccess() {
+        return lastAccess;
+    }
+
+    /**
+     * Confere se a operação pode ser aplicada sem mexer em nada. Depois dela
+     * o applyLocal não falha.
+     */
+    private void check(SheetOp op) {
+        int n = rows.size();
+        if (op instanceof SheetOp.SetCell c) {
+            Objects.checkIndex(c.row(), n);
+            if (c.col() < 0) {
+                throw new IndexOutOfBoundsException("Coluna inválida: " + c.col());
+            }
+        } else if (op instanceof SheetOp.SetRow r) {
+            Objects.checkIndex(r.row(), n);
+        } else if (op instanceof SheetOp.InsertRow r) {
+            Objects.checkIndex(r.row(), n + 1);
+        } else if (op instanceof SheetOp.RemoveRow r) {
+            Objects.checkIndex(r.row(), n);
+        } else if (op instanceof SheetOp.MoveRow m) {
+            Objects.checkIndex(m.from(), n);
+            Objects.checkIndex(m.to(), n);
+        } else if (op instanceof SheetOp.Renumber r && r.startRow() <= r.endRow()) {
+            Objects.checkIndex(r.startRow(), n);
+            Objects.checkIndex(r.endRow(), n);
+        }
+    }
+
+    private void applyLocal(SheetOp op) {
+        if (op instanceof SheetOp.SetCell c) {
+            String[] cols = rows.get(c.row());
+            if (c.col() >= cols.length) {
+                String[] novo = new String[c.col() + 1];
+                System.arraycopy(cols, 0, novo, 0, cols.length);
+                for (int i = cols.length; i < novo.length; i++) {
+                    novo[i] = "";
+                }
+                cols = novo;
+                rows.set(c.row(), cols);
+            }
+            cols[c.col()] = c.value();
+            if (c.col() == 0) {
+                sujo(c.row(), c.row());
+            }
+        } else if (op instanceof SheetOp.SetRow r) {
+            rows.set(r.row(), r.cols().clone());
+            sujo(r.row(), r.row());
+        } else if (op instanceof SheetOp.InsertRow r) {
+            rows.add(r.row(), r.cols().clone());
+            sujo(r.row(), Integer.MAX_VALUE); // tudo abaixo desceu
+        } else if (op instanceof SheetOp.AddRow r) {
+            rows.add(r.cols().clone());
+            sujo(rows.size() - 1, Integer.MAX_VALUE);
+        } else if (op instanceof SheetOp.RemoveRow r) {
+            rows.remove(r.row());
+            sujo(r.row(), Integer.MAX_VALUE); // tudo abaixo subiu
+        } else if (op instanceof SheetOp.MoveRow m) {
+            String[] linha = rows.remove(m.from());
+            rows.add(m.to(), linha);
+            // Só o intervalo entre origem e destino muda de posição
+            sujo(Math.min(m.from(), m.to()), Math.max(m.from(), m.to()));
+        } else if (op instanceof SheetOp.Renumber n) {
+            renumerar(n.startRow(), n.endRow());
+        }
+    }
+
+    /**
+     * Aplica o Renumber só no trecho que pode ter mudado desde o anterior
+     * (mesmo início). O resultado é sempre o mesmo da renumeração completa.
+     */
+    private void renumerar(int startRow, int endRow) {
+        int de = startRow;
+        int ate = endRow;
+        if (startRow == ultimoRenumStart) {
+            int sujoFim = (endRow > ultimoRenumEnd) ? Integer.MAX_VALUE : sujoAte;
+            de = Math.max(startRow, sujoDe);
+            ate = Math.min(endRow, sujoFim);
+        }
+        for (int i = de; i <= ate; i++) {
+            String[] cols = rows.get(i);
+            int numeroPagina = i - startRow + 1; // 1, 2, 3... a partir de startRow
+            if (cols.length == 0) {
+                rows.set(i, new String[]{String.valueOf(numeroPagina)});
+                continue;
+            }
+            // Só altera se o número estiver errado
+            if (!ehNumero(cols[0], numeroPagina)) {
+                cols[0] = String.valueOf(numeroPagina);
+            }
+        }
+        ultimoRenumStart = startRow;
+        ultimoRenumEnd = endRow;
+        sujoDe = Integer.MAX_VALUE;
+        sujoAte = -1;
+    }
+
+    private void sujo(int de, int ate) {
+        sujoDe = Math.min(sujoDe, de);
+        sujoAte = Math.max(sujoAte, ate);
+    }
+
+    // s == String.valueOf(n), sem alocar
+    private static boolean ehNumero(String s, int n) {
+        int len = s.length();
+        if (len == 0 || len > 10) {
+            return false;
+        }
+        long v = 0;
+        for (int i = 0; i < len; i++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9' || (i == 0 && ch == '0' && len > 1)) {
+                return false;
+            }
+            v = v * 10 + (ch - '0');
+        }
+        return v == n;
+    }
+
+    private void changed() {
+        modCount++;
+        snapshot = null;
+        touch();
+    }
+
+    private void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+/**
+ * Operação elementar aplicada num {@link SheetModel}. É o que vai para o log
+ * (WAL), o que é reaplicado na recuperação e o que o delta sync
+ * (GET /api/sheet/changes) devolve aos clientes.
+ *
+ * Índices são do ARQUIVO (0 = header).
+ */
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "op")
+@JsonSubTypes({
+    @JsonSubTypes.Type(value = SheetOp.SetCell.class, name = "SET"),
+    @JsonSubTypes.Type(value = SheetOp.SetRow.class, name = "ROW"),
+    @JsonSubTypes.Type(value = SheetOp.InsertRow.class, name = "INS"),
+    @JsonSubTypes.Type(value = SheetOp.AddRow.class, name = "ADD"),
+    @JsonSubTypes.Type(value = SheetOp.RemoveRow.class, name = "DEL"),
+    @JsonSubTypes.Type(value = SheetOp.MoveRow.class, name = "MOV"),
+    @JsonSubTypes.Type(value = SheetOp.Renumber.class, name = "NUM")
+})
+public sealed interface SheetOp {
+
+    record SetCell(int row, int col, String value) implements SheetOp {
+    }
+
+    record SetRow(int row, String[] cols) implements SheetOp {
+    }
+
+    record InsertRow(int row, String[] cols) implements SheetOp {
+    }
+
+    record AddRow(String[] cols) implements SheetOp {
+    }
+
+    record RemoveRow(int row) implements SheetOp {
+    }
+
+    record MoveRow(int from, int to) implements SheetOp {
+    }
+
+    /**
+     * Força a coluna 0 das linhas [startRow..endRow] para 1, 2, 3...
+     */
+    record Renumber(int startRow, int endRow) implements SheetOp {
+    }
+}
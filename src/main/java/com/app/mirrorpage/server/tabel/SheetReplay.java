@@ -0,0 +1,29 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+import java.util.List;
+
+/**
+ * Resposta do replay (/app/sheet/replay ou GET /api/sheet/replay): os frames
+ * do tópico com seq &gt; afterSeq, na ordem em que saíram.
+ *
+ * full = true quando o buffer já não alcança afterSeq (ou o seq é de antes
+ * de um restart): o cliente recarrega a planilha inteira.
+ */
+public record SheetReplay(
+        String path,
+        long afterSeq,
+        long lastSeq,      // seq do último frame enviado no tópico (0 = nenhum)
+        boolean full,
+        List<Frame> frames
+) {
+
+    /**
+     * type = nome simples do payload (SheetCellChangeEvent, SheetEventBatch...).
+     */
+    public record Frame(long seq, String type, Object event) {
+    }
+}
@@ -7,7 +7,8 @@ package com.app.mirrorpage.server.tabel;
 public record SheetRowInsertedEvent(
         String path, // mesmo path da planilha: "BDBR/Prelim.csv"
         int afterRow, // linha depois da qual foi inserida
-        String user // quem inseriu (opcional, mas é útil)
+        String user, // quem inseriu (opcional, mas é útil)
+        String version // versão da planilha depois da alteração (ETag)
         ) {
 
 }
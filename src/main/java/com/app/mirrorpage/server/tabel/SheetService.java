@@ -8,11 +8,12 @@ import com.app.mirrorpage.fs.PathResolver;
 import com.app.mirrorpage.server.service.SheetEventBroadcaster;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -25,237 +26,298 @@ public class SheetService {
     private final PathResolver pathResolver;
     private final SheetEventBroadcaster broadcaster;
     private final CellLockService cellLockService;
+    private final SheetCache sheetCache;
+    private final SheetLocks sheetLocks;
 
     public SheetService(PathResolver pathResolver,
             SheetEventBroadcaster broadcaster,
-            CellLockService cellLockService) {
+            CellLockService cellLockService,
+            SheetCache sheetCache,
+            SheetLocks sheetLocks) {
         this.pathResolver = pathResolver;
         this.broadcaster = broadcaster;
         this.cellLockService = cellLockService;
+        this.sheetCache = sheetCache;
+        this.sheetLocks = sheetLocks;
     }
 
     public String loadSheet(String relPath) throws IOException {
-        Path file = resolveSheet(relPath);
-        if (!Files.exists(file)) {
-            return "";
-        }
-        return Files.readString(file, StandardCharsets.UTF_8);
+        SheetModel.Snapshot snap = loadSnapshot(relPath);
+        return (snap != null) ? snap.text() : "";
     }
 
-// Adicionado 'synchronized' para evitar conflito entre usuários
-    public synchronized void insertRow(String relPath, int afterRow, String username) throws IOException {
+    /**
+     * Texto completo + versão (para o ETag), ou null se a planilha não existe.
+     */
+    public SheetModel.Snapshot loadSnapshot(String relPath) throws IOException {
         Path file = resolveSheet(relPath);
-
-        List<String> linhas = Files.exists(file)
-                ? Files.readAllLines(file, StandardCharsets.UTF_8)
-                : new ArrayList<>();
-
-        if (linhas.isEmpty()) {
-            return;
+        SheetModel sheet = sheetCache.getIfExists(file);
+        if (sheet == null) {
+            return null;
         }
 
-        int fixedDataIndex = 1;
-
-        // afterRow vem do cliente. +2 para pular Header e cair depois da selecionada.
-        int novaLinhaIndex = afterRow + 2;
-
-        // Proteções de índice
-        if (novaLinhaIndex >= linhas.size()) {
-            novaLinhaIndex = linhas.size() - 1; // Antes do rodapé
+        // Serve da memória: o disco pode estar atrás (write-behind).
+        // Caminho rápido sem lock: texto completo já montado
+        SheetModel.Snapshot snap = sheet.cachedSnapshot();
+        if (snap != null) {
+            return snap;
         }
-        if (novaLinhaIndex <= fixedDataIndex) {
-            novaLinhaIndex = fixedDataIndex + 1; // Depois da fixa
+        try (SheetLocks.Held lock = sheetLocks.read(file)) {
+            return sheet.snapshot();
         }
+    }
 
-        String header = linhas.get(0);
-        int numCols = header.split(";", -1).length;
-
-        // ===== 1. Monta a Nova Linha =====
-        StringBuilder novaLinha = new StringBuilder();
-        for (int i = 0; i < numCols; i++) {
-            if (i > 0) {
-                novaLinha.append(';');
-            }
-
-            if (i == 0) {
-                novaLinha.append("0");
-            } else if (i == 8 || i == 9 || i == 10) {
-                novaLinha.append("00:00");
-            } else if (i == 13) {
-                novaLinha.append("00:00:00");
-            } else {
-                novaLinha.append("");
+    /**
+     * Delta sync: operações aplicadas depois da versão "since". Se a versão é
+     * de outra carga ou já saiu do histórico, devolve o texto completo.
+     *
+     * @return null se a planilha não existe
+     */
+    public SheetChanges changesSince(String relPath, String since) throws IOException {
+        Path file = resolveSheet(relPath);
+        SheetModel sheet = sheetCache.getIfExists(file);
+        if (sheet == null) {
+            return null;
+        }
+        // Lock de leitura: ops e versão do mesmo instante (nunca no meio de
+        // uma operação de várias etapas)
+        try (SheetLocks.Held lock = sheetLocks.read(file)) {
+            List<SheetOp> ops = sheet.changesSince(since);
+            if (ops != null) {
+                return new SheetChanges(relPath, sheet.version(), false, ops, null);
             }
+            SheetModel.Snapshot snap = sheet.snapshot();
+            return new SheetChanges(relPath, snap.version(), true, List.of(), snap.text());
         }
+    }
 
-        // ===== 2. Insere na Lista =====
-        linhas.add(novaLinhaIndex, novaLinha.toString());
-
-        int lockStartIndex = novaLinhaIndex - 1;
-
-        // ===== 3. Ajusta Locks =====
-        // [CORREÇÃO] Move locks apenas da posição inserida para baixo
-        cellLockService.shiftLocks(relPath, lockStartIndex, 1);
+    /**
+     * Altera uma única célula (row = índice do model).
+     *
+     * @throws NoSuchFileException se a planilha não existe
+     * @throws IllegalArgumentException se a célula está fora da planilha
+     * @param token leaseId do lock com que o cliente editou (null = basta a
+     * célula estar travada pelo usuário)
+     * @throws IllegalStateException se a célula não está travada pelo usuário
+     * ou o token não é mais o do lock vigente
+     */
+    public void saveCell(String relPath, int modelRow, int col, String value, Long token, String username)
+            throws IOException {
+        applyCells(relPath, List.of(new CellPatch(modelRow, col, value, token)), username, false);
+    }
 
-        // ===== 4. Renumera =====
-        int footerIndex = linhas.size() - 1;
-        // [CORREÇÃO] Começa de fixedDataIndex (1) para garantir sequencia 1, 2, 3...
-        renumerarPaginas(linhas, fixedDataIndex + 1, linhas.size() - 2);
+    /**
+     * Altera várias células da mesma planilha de uma vez: valida tudo (limites
+     * e locks) antes de mexer em qualquer célula, aplica sob um único lock de
+     * escrita e manda UM evento para o lote.
+     *
+     * @return as células como ficaram gravadas
+     * @throws NoSuchFileException se a planilha não existe
+     * @throws IllegalArgumentException se alguma célula está fora da planilha
+     * @throws IllegalStateException se alguma célula não está travada pelo
+     * usuário ou tem token vencido (nada é aplicado)
+     */
+    public List<CellPatch> patchCells(String relPath, List<CellPatch> changes, String username) throws IOException {
+        if (changes == null || changes.isEmpty()) {
+            return List.of();
+        }
+        return applyCells(relPath, changes, username, true);
+    }
 
-        // ===== 5. Salva =====
-        Files.write(file, linhas, StandardCharsets.UTF_8);
+    /**
+     * Lock em lote: uma linha, um intervalo de linhas ou um retângulo (tudo
+     * ou nada). Colunas não informadas = linha inteira.
+     *
+     * @throws NoSuchFileException se a planilha não existe
+     * @throws IllegalArgumentException se o bloco sai da planilha
+     */
+    public CellLockStore.BatchLock lockRange(CellRangeRequest req, String username) throws IOException {
+        int[] r = resolveRange(req);
+        return cellLockService.acquireRange(req.path(), r[0], r[1], r[2], r[3], username);
+    }
 
-        // ===== 6. Notifica =====
-        SheetRowInsertedEvent ev = new SheetRowInsertedEvent(relPath, afterRow, username);
-        broadcaster.sendRowInserted(ev);
+    /**
+     * Unlock em lote (só as células que são do próprio usuário).
+     */
+    public List<CellLock> unlockRange(CellRangeRequest req, String username) throws IOException {
+        int[] r = resolveRange(req);
+        return cellLockService.releaseRange(req.path(), r[0], r[1], r[2], r[3], username);
     }
 
-    public void moveRow(String path, int from, int to, String username) throws Exception {
-        Path abs = resolveSheet(path);
-        List<String> linhas = Files.readAllLines(abs, StandardCharsets.UTF_8);
+    // Lock de escrita só nesta planilha: outras planilhas seguem em paralelo
+    public void insertRow(String relPath, int afterRow, String username) throws IOException {
+        Path file = resolveSheet(relPath);
+        try (SheetLocks.Held lock = sheetLocks.write(file)) {
+            SheetModel sheet = sheetCache.getIfExists(file);
 
-        if (linhas.size() < 4) {
-            return; // Mínimo: Header, Fixa, 1 Dado, Rodapé
-        }
+            if (sheet == null || sheet.rowCount() == 0) {
+                return;
+            }
 
-        // --- 1. VALIDAÇÃO DE INTERVALO (A Correção Crítica) ---
-        // Verifica se existe algum lock na Origem, no Destino, OU em qualquer linha entre eles.
-        // Isso impede que o movimento desalinhe a edição de outro usuário.
-        int start = Math.min(from, to);
-        int end = Math.max(from, to);
+            int fixedDataIndex = 1;
 
-        for (int i = start; i <= end; i++) {
-            try {
-                // Se encontrar um lock de OUTRA pessoa, estoura erro e cancela tudo.
-                validarLinhaLivre(path, i, username, linhas);
-            } catch (IllegalStateException e) {
-                throw new IllegalStateException("Movimento bloqueado: A linha " + (i + 1)
-                        + " está em uso no momento. Aguarde a edição terminar.");
+            // afterRow vem do cliente. +2 para pular Header e cair depois da selecionada.
+            int novaLinhaIndex = afterRow + 2;
+
+            // Proteções de índice
+            if (novaLinhaIndex >= sheet.rowCount()) {
+                novaLinhaIndex = sheet.rowCount() - 1; // Antes do rodapé
+            }
+            if (novaLinhaIndex <= fixedDataIndex) {
+                novaLinhaIndex = fixedDataIndex + 1; // Depois da fixa
             }
-        }
 
-        int headerIndex = 0;
-        int fixedDataIndex = 1;
-        int footerIndex = linhas.size() - 1;
+            int numCols = sheet.columnCount();
 
-        // Cálculo dos índices reais no arquivo físico
-        int realFrom = headerIndex + 1 + from;
-        int realTo = headerIndex + 1 + to;
+            // ===== 1. Monta a Nova Linha =====
+            String[] novaLinha = new String[numCols];
+            for (int i = 0; i < numCols; i++) {
+                if (i == 0) {
+                    novaLinha[i] = "0";
+                } else if (i == 8 || i == 9 || i == 10) {
+                    novaLinha[i] = "00:00";
+                } else if (i == 13) {
+                    novaLinha[i] = "00:00:00";
+                } else {
+                    novaLinha[i] = "";
+                }
+            }
 
-        // --- PROTEÇÕES ---
-        if (realFrom <= fixedDataIndex || realTo <= fixedDataIndex) {
-            return;
-        }
-        if (realFrom >= footerIndex || realTo >= footerIndex) {
-            return;
-        }
-        if (realFrom == realTo) {
-            return;
-        }
+            // ===== 2. Insere na Planilha =====
+            sheet.insertRow(novaLinhaIndex, novaLinha);
 
-        // --- MOVIMENTO EXATO ---
-        List<String> mut = new ArrayList<>(linhas);
+            int lockStartIndex = novaLinhaIndex - 1;
 
-        // 1. Remove da posição antiga
-        String linhaMovida = mut.remove(realFrom);
+            // ===== 3. Ajusta Locks =====
+            // [CORREÇÃO] Move locks apenas da posição inserida para baixo
+            cellLockService.shiftLocks(relPath, lockStartIndex, 1);
 
-        // 2. Insere na posição de destino
-        mut.add(realTo, linhaMovida);
+            // ===== 4. Renumera =====
+            // [CORREÇÃO] Começa de fixedDataIndex (1) para garantir sequencia 1, 2, 3...
+            sheet.renumber(fixedDataIndex + 1, sheet.rowCount() - 2);
 
-        // --- RENUMERAÇÃO ---
-        renumerarPaginas(mut, fixedDataIndex + 1, footerIndex - 1);
+            // ===== 5. Salva =====
+            // (o SheetCache grava em disco no próximo flush)
 
-        // --- ATENÇÃO AOS LOCKS ---
-        // Removemos a chamada 'shiftLocks' aqui.
-        // Motivo: Como validamos acima que NÃO HÁ locks no intervalo afetado, 
-        // não precisamos deslocar locks de ninguém. 
-        // Se o próprio usuário que moveu tinha locks, eles seriam invalidados ou 
-        // liberados pelo front ao soltar o mouse. É mais seguro não mexer no mapa de locks aqui.
-        // Salva e notifica
-        Files.write(abs, mut, StandardCharsets.UTF_8);
-        broadcaster.sendRowMoved(new RowMoveEvent(path, from, to, username));
+            // ===== 6. Notifica =====
+            SheetRowInsertedEvent ev = new SheetRowInsertedEvent(relPath, afterRow, username, sheet.version());
+            broadcaster.sendRowInserted(ev);
+        }
     }
 
-    /**
-     * Método auxiliar para garantir a sequência 1, 2, 3... na primeira coluna.
-     */
-    private void renumerarPaginas(List<String> linhas, int startRow, int endRow) {
-        int numeroPagina = 1; // Contador sequencial
-        String sep = ";";     // Seu separador CSV
+    public void moveRow(String path, int from, int to, String username) throws Exception {
+        Path abs = resolveSheet(path);
+        try (SheetLocks.Held lock = sheetLocks.write(abs)) {
+            SheetModel sheet = sheetCache.get(abs);
 
-        for (int i = startRow; i <= endRow; i++) {
-            String linha = linhas.get(i);
+            if (sheet.rowCount() < 4) {
+                return; // Mínimo: Header, Fixa, 1 Dado, Rodapé
+            }
 
-            // Divide a linha preservando colunas vazias (-1)
-            String[] cols = linha.split(java.util.regex.Pattern.quote(sep), -1);
+            // --- 1. VALIDAÇÃO DE INTERVALO (A Correção Crítica) ---
+            // Verifica se existe algum lock na Origem, no Destino, OU em qualquer linha entre eles.
+            // Isso impede que o movimento desalinhe a edição de outro usuário.
+            int start = Math.min(from, to);
+            int end = Math.max(from, to);
+
+            // Uma consulta só para o intervalo inteiro.
+            // Se encontrar um lock de OUTRA pessoa, estoura erro e cancela tudo.
+            CellLock emUso = cellLockService.findForeignLock(path, start, end, username);
+            if (emUso != null) {
+                throw new IllegalStateException("Movimento bloqueado: A linha " + (emUso.row + 1)
+                        + " está em uso no momento. Aguarde a edição terminar.");
+            }
 
-            // Se a linha for válida, força a Coluna 0 a ser o número sequencial
-            if (cols.length > 0) {
-                String novoNum = String.valueOf(numeroPagina);
+            int headerIndex = 0;
+            int fixedDataIndex = 1;
+            int footerIndex = sheet.rowCount() - 1;
 
-                // Só altera e recria a string se o número estiver errado
-                if (!cols[0].equals(novoNum)) {
-                    cols[0] = novoNum;
-                    linhas.set(i, String.join(sep, cols));
-                }
+            // Cálculo dos índices reais no arquivo físico
+            int realFrom = headerIndex + 1 + from;
+            int realTo = headerIndex + 1 + to;
+
+            // --- PROTEÇÕES ---
+            if (realFrom <= fixedDataIndex || realTo <= fixedDataIndex) {
+                return;
             }
-            numeroPagina++;
+            if (realFrom >= footerIndex || realTo >= footerIndex) {
+                return;
+            }
+            if (realFrom == realTo) {
+                return;
+            }
+
+            // --- MOVIMENTO EXATO ---
+            // Remove da posição antiga e insere na posição de destino
+            sheet.moveRow(realFrom, realTo);
+
+            // --- RENUMERAÇÃO ---
+            sheet.renumber(fixedDataIndex + 1, footerIndex - 1);
+
+            // --- ATENÇÃO AOS LOCKS ---
+            // Removemos a chamada 'shiftLocks' aqui.
+            // Motivo: Como validamos acima que NÃO HÁ locks no intervalo afetado, 
+            // não precisamos deslocar locks de ninguém. 
+            // Se o próprio usuário que moveu tinha locks, eles seriam invalidados ou 
+            // liberados pelo front ao soltar o mouse. É mais seguro não mexer no mapa de locks aqui.
+            // Notifica (o SheetCache grava em disco no próximo flush)
+            broadcaster.sendRowMoved(new RowMoveEvent(path, from, to, username, sheet.version()));
         }
     }
 
     public void deleteRow(String path, int modelRow, String username) throws Exception {
         Path abs = resolveSheet(path);
-        List<String> linhas = Files.readAllLines(abs, StandardCharsets.UTF_8);
-
-        // Estrutura Mínima: Header(0) + Fixa(1) + Rodapé(Size-1)
-        if (linhas.size() < 3) {
-            return;
-        }
+        try (SheetLocks.Held lock = sheetLocks.write(abs)) {
+            SheetModel sheet = sheetCache.get(abs);
 
-        validarLinhaLivre(path, modelRow, username, linhas);
+            // Estrutura Mínima: Header(0) + Fixa(1) + Rodapé(Size-1)
+            if (sheet.rowCount() < 3) {
+                return;
+            }
 
-        // --- 1. VALIDAR ÍNDICES ---
-        int headerIndex = 0;
-        int fixedDataIndex = 1;      // Linha Fixa (Model Row 0)
-        int footerIndex = linhas.size() - 1;
+            validarLinhaLivre(path, modelRow, username, sheet);
 
-        // Converte ModelRow (da tabela) para FileRow (do arquivo)
-        // Model 0 = File 1
-        // Model 1 = File 2
-        int fileIndex = headerIndex + 1 + modelRow;
+            // --- 1. VALIDAR ÍNDICES ---
+            int headerIndex = 0;
+            int fixedDataIndex = 1;      // Linha Fixa (Model Row 0)
+            int footerIndex = sheet.rowCount() - 1;
 
-        // Proteção: Não deletar Linha Fixa
-        if (fileIndex <= fixedDataIndex) {
-            throw new IllegalArgumentException("Não é permitido excluir a linha fixa de topo.");
-        }
+            // Converte ModelRow (da tabela) para FileRow (do arquivo)
+            // Model 0 = File 1
+            // Model 1 = File 2
+            int fileIndex = headerIndex + 1 + modelRow;
 
-        // Proteção: Não deletar Rodapé ou fora dos limites
-        if (fileIndex >= footerIndex) {
-            throw new IllegalArgumentException("Não é permitido excluir o rodapé.");
-        }
+            // Proteção: Não deletar Linha Fixa
+            if (fileIndex <= fixedDataIndex) {
+                throw new IllegalArgumentException("Não é permitido excluir a linha fixa de topo.");
+            }
 
-        // --- 3. EXECUÇÃO ---
-        List<String> mut = new ArrayList<>(linhas);
+            // Proteção: Não deletar Rodapé ou fora dos limites
+            if (fileIndex >= footerIndex) {
+                throw new IllegalArgumentException("Não é permitido excluir o rodapé.");
+            }
 
-        // Remove a linha
-        mut.remove(fileIndex);
+            // --- 3. EXECUÇÃO ---
+            // Remove a linha
+            sheet.removeRow(fileIndex);
 
-        // O arquivo diminuiu de tamanho, então o rodapé agora é um índice menor
-        int novoFooterIndex = mut.size() - 1;
+            // O arquivo diminuiu de tamanho, então o rodapé agora é um índice menor
+            int novoFooterIndex = sheet.rowCount() - 1;
 
-        // --- 4. RENUMERAR ---
-        // Renumera da primeira linha móvel (2) até antes do rodapé
-        // Importante: Como removemos uma linha, os números de baixo precisam subir.
-        // O método renumerarPaginas vai sobrescrever a coluna 0 sequencialmente (1, 2, 3...)
-        renumerarPaginas(mut, fixedDataIndex + 1, novoFooterIndex - 1);
+            // --- 4. RENUMERAR ---
+            // Renumera da primeira linha móvel (2) até antes do rodapé
+            // Importante: Como removemos uma linha, os números de baixo precisam subir.
+            // O renumber vai sobrescrever a coluna 0 sequencialmente (1, 2, 3...)
+            sheet.renumber(fixedDataIndex + 1, novoFooterIndex - 1);
 
-        cellLockService.shiftLocks(path, modelRow, -1);
+            // Locks da linha removida somem; os de baixo sobem uma linha
+            cellLockService.shiftLocks(path, modelRow, -1);
 
-        // --- 5. SALVAR E NOTIFICAR ---
-        Files.write(abs, mut, StandardCharsets.UTF_8);
+            // --- 5. NOTIFICAR (o SheetCache grava em disco no próximo flush) ---
 
-        // Avisa que a linha 'modelRow' foi deletada
-        broadcaster.sendRowDeleted(new RowDeletedEvent(path, modelRow, username));
+            // Avisa que a linha 'modelRow' foi deletada
+            broadcaster.sendRowDeleted(new RowDeletedEvent(path, modelRow, username, sheet.version()));
+        }
     }
 
     public List<String> listarPastasRaiz() {
@@ -301,146 +363,234 @@ public class SheetService {
         return pathResolver.resolveSafe(relPath);
     }
 
-    // Certifique-se de que este método auxiliar está EXATAMENTE assim:
-    private void validarLinhaLivre(String path, int modelRow, String username, List<String> linhas) {
-        if (linhas.isEmpty()) {
-            return;
+    // {fromRow, toRow, fromCol, toCol} do model, já com os padrões e validado
+    private int[] resolveRange(CellRangeRequest req) throws IOException {
+        SheetModel sheet = sheetCache.getIfExists(resolveSheet(req.path()));
+        if (sheet == null) {
+            throw new NoSuchFileException(req.path());
         }
+        int linhas = sheet.rowCount() - 1; // sem o header
+        int colunas = sheet.columnCount();
 
-        // Descobre quantas colunas existem lendo o cabeçalho
-        String header = linhas.get(0);
-        int numCols = header.split(";", -1).length;
-
-        // Varre TODAS as colunas dessa linha
-        for (int col = 0; col < numCols; col++) {
-            // Pergunta ao LockService quem é o dono
-            String owner = cellLockService.getOwner(path, modelRow, col);
+        int fromRow = req.fromRow();
+        int toRow = (req.toRow() != null) ? req.toRow() : fromRow;
+        int fromCol = (req.fromCol() != null) ? req.fromCol() : 0;
+        int toCol = (req.toCol() != null) ? req.toCol() : colunas - 1;
 
-            // Se tem dono e NÃO sou eu, BLOQUEIA!
-            if (owner != null && !owner.equals(username)) {
-                // Esta mensagem é a que vai aparecer no seu JOptionPane
-                throw new IllegalStateException("Linha bloqueada. Coluna " + (col + 1) + " em edição por: " + owner);
-            }
+        if (fromRow < 0 || toRow < fromRow || toRow >= linhas) {
+            throw new IllegalArgumentException("Linhas fora da planilha: " + fromRow + ".." + toRow);
+        }
+        if (fromCol < 0 || toCol < fromCol || toCol >= colunas) {
+            throw new IllegalArgumentException("Colunas fora da planilha: " + fromCol + ".." + toCol);
         }
+        return new int[]{fromRow, toRow, fromCol, toCol};
     }
 
-    public synchronized void copyRowToFinal(String sourcePath, int sourceRow, String targetPath, String user) throws IOException {
+    // Uma única consulta à tabela de locks para a linha inteira
+    private void validarLinhaLivre(String path, int modelRow, String username, SheetModel sheet) {
+        if (sheet.rowCount() == 0) {
+            return;
+        }
 
-        // --- 1. PREPARAÇÃO DA ORIGEM (PRELIM) ---
-        Path srcCsv = pathResolver.resolveSafe(sourcePath);
-        if (!Files.exists(srcCsv)) {
-            throw new FileNotFoundException("Prelim não encontrado");
+        // Se tem dono e NÃO sou eu, BLOQUEIA!
+        CellLock lock = cellLockService.findForeignLock(path, modelRow, modelRow, username);
+        if (lock != null) {
+            // Esta mensagem é a que vai aparecer no seu JOptionPane
+            throw new IllegalStateException("Linha bloqueada. Coluna " + (lock.col + 1) + " em edição por: " + lock.owner);
         }
+    }
 
-        List<String> srcLines = Files.readAllLines(srcCsv, StandardCharsets.UTF_8);
+    public void copyRowToFinal(String sourcePath, int sourceRow, String targetPath, String user) throws IOException {
 
-        // Validações básicas
-        if (sourceRow + 1 >= srcLines.size()) {
-            throw new IllegalArgumentException("A linha de origem não existe mais.");
-        }
-        validarLinhaLivre(sourcePath, sourceRow, user, srcLines);
+        Path srcCsv = pathResolver.resolveSafe(sourcePath);
+        Path tgtCsv = pathResolver.resolveSafe(targetPath);
 
-        // --- LÓGICA DO CONTADOR (INCREMENTA COLUNA 1) ---
-        String lineContent = srcLines.get(sourceRow + 1);
-        String[] columns = lineContent.split(";", -1);
-        int numCols = srcLines.get(0).split(";", -1).length; // Total colunas pelo header
+        // Trava as duas planilhas (sempre na mesma ordem)
+        try (SheetLocks.Held lock = sheetLocks.write(srcCsv, tgtCsv)) {
 
-        // Expande array se necessário
-        if (columns.length < numCols) {
-            String[] newCols = new String[numCols];
-            System.arraycopy(columns, 0, newCols, 0, columns.length);
-            for (int i = 0; i < numCols; i++) {
-                if (newCols[i] == null) {
-                    newCols[i] = "";
+            // --- 1. PREPARAÇÃO DA ORIGEM (PRELIM) ---
+            SheetModel src = sheetCache.getIfExists(srcCsv);
+            if (src == null) {
+                throw new FileNotFoundException("Prelim não encontrado");
+            }
+
+            // Validações básicas
+            if (sourceRow + 1 >= src.rowCount()) {
+                throw new IllegalArgumentException("A linha de origem não existe mais.");
+            }
+            validarLinhaLivre(sourcePath, sourceRow, user, src);
+
+            // --- LÓGICA DO CONTADOR (INCREMENTA COLUNA 1) ---
+            String[] columns = src.row(sourceRow + 1);
+            int numCols = src.columnCount(); // Total colunas pelo header
+
+            // Expande array se necessário
+            if (columns.length < numCols) {
+                String[] newCols = new String[numCols];
+                System.arraycopy(columns, 0, newCols, 0, columns.length);
+                for (int i = 0; i < numCols; i++) {
+                    if (newCols[i] == null) {
+                        newCols[i] = "";
+                    }
                 }
+                columns = newCols;
             }
-            columns = newCols;
-        }
 
-        // Incrementa
-        int contador = 0;
-        try {
-            if (!columns[1].trim().isEmpty()) {
-                contador = Integer.parseInt(columns[1].trim());
+            // Incrementa
+            int contador = 0;
+            try {
+                if (!columns[1].trim().isEmpty()) {
+                    contador = Integer.parseInt(columns[1].trim());
+                }
+            } catch (Exception e) {
+                contador = 0;
             }
-        } catch (Exception e) {
-            contador = 0;
-        }
 
-        contador++;
-        columns[1] = String.valueOf(contador);
-        String lineContentUpdated = String.join(";", columns);
+            contador++;
+            columns[1] = String.valueOf(contador);
 
-        // Salva Prelim
-        srcLines.set(sourceRow + 1, lineContentUpdated);
-        Files.write(srcCsv, srcLines, StandardCharsets.UTF_8);
+            // Salva Prelim (em memória; vai para o disco no próximo flush)
+            src.setRow(sourceRow + 1, columns);
 
-        // --- 2. TRATAMENTO DO DESTINO (FINAL) COM RODAPÉ FIXO ---
-        Path tgtCsv = pathResolver.resolveSafe(targetPath);
+            // --- 2. TRATAMENTO DO DESTINO (FINAL) COM RODAPÉ FIXO ---
+            // Se não existir, cria Header + Rodapé inicial
+            SheetModel tgt = sheetCache.getIfExists(tgtCsv);
+            if (tgt == null) {
+                String header = CsvRowCodec.join(src.row(0));
+                String footer = ";".repeat(Math.max(0, numCols - 1)); // Rodapé vazio inicial
+                // Se tiver um texto padrão de rodapé, coloque aqui
+                tgt = sheetCache.create(tgtCsv, List.of(header, footer));
+            }
 
-        // Se não existir, cria Header + Rodapé inicial
-        if (!Files.exists(tgtCsv)) {
-            Files.createFile(tgtCsv);
-            String header = srcLines.get(0);
-            String footer = ";".repeat(Math.max(0, numCols - 1)); // Rodapé vazio inicial
-            // Se tiver um texto padrão de rodapé, coloque aqui
-            Files.writeString(tgtCsv, header + "\n" + footer);
-        }
+            // 🟢 PASSO 0: VERIFICAR LOCK ANTES DE MEXER NO DESTINO
+            // Verifica se alguém está editando a linha onde vamos escrever
+            // (o modelo é alterado no lugar, então valida antes de tirar o rodapé)
+            validarLinhaLivre(targetPath, sourceRow, user, tgt);
+
+            // 🟢 PASSO A: REMOVER O RODAPÉ (Última linha)
+            // Guardamos ela na memória para colocar de volta no fim
+            String[] fixedFooterRow;
+            if (tgt.rowCount() > 1) { // Tem Header + Pelo menos 1 linha
+                int lastIndex = tgt.rowCount() - 1;
+                fixedFooterRow = tgt.removeRow(lastIndex); // Remove a última linha
+            } else {
+                // Fallback se o arquivo estiver corrompido (só header)
+                fixedFooterRow = emptyRow(numCols);
+            }
 
-        List<String> tgtLines = Files.readAllLines(tgtCsv, StandardCharsets.UTF_8);
-
-        // 🟢 PASSO A: REMOVER O RODAPÉ (Última linha)
-        // Guardamos ela na memória para colocar de volta no fim
-        String fixedFooterRow = "";
-        if (tgtLines.size() > 1) { // Tem Header + Pelo menos 1 linha
-            int lastIndex = tgtLines.size() - 1;
-            fixedFooterRow = tgtLines.remove(lastIndex); // Remove a última linha da lista
-        } else {
-            // Fallback se o arquivo estiver corrompido (só header)
-            fixedFooterRow = ";".repeat(Math.max(0, numCols - 1));
-        }
+            // 🟢 PASSO B: PREENCHER VAZIOS (PADDING)
+            // O alvo é sourceRow + 1 (por causa do header 0)
+            int targetListIndex = sourceRow + 1;
 
-        // 🟢 PASSO B: PREENCHER VAZIOS (PADDING)
-        // O alvo é sourceRow + 1 (por causa do header 0)
-        int targetListIndex = sourceRow + 1;
+            // Enquanto a planilha (sem o rodapé) for menor que o índice alvo, enche de linhas vazias
+            while (tgt.rowCount() <= targetListIndex) {
+                tgt.addRow(emptyRow(numCols));
+            }
 
-        // Enquanto a lista (sem o rodapé) for menor que o índice alvo, enche de linhas vazias
-        while (tgtLines.size() <= targetListIndex) {
-            String emptyLine = ";".repeat(Math.max(0, numCols - 1));
-            tgtLines.add(emptyLine);
-        }
+            // 🟢 PASSO C: INSERIR
+            // Sobrescreve a linha alvo com os dados novos
+            tgt.setRow(targetListIndex, columns);
 
-        // 🟢 PASSO C: VERIFICAR LOCK E INSERIR
-        // Verifica se alguém está editando a linha onde vamos escrever
-        validarLinhaLivre(targetPath, sourceRow, user, tgtLines);
+            // 🟢 PASSO D: DEVOLVER O RODAPÉ
+            // Adiciona a linha fixa no final de tudo
+            tgt.addRow(fixedFooterRow);
 
-        // Sobrescreve a linha alvo com os dados novos
-        tgtLines.set(targetListIndex, lineContentUpdated);
+            // --- 3. CÓPIA DA LAUDA ---
+            Path srcLaudaDir = resolveLaudaDir(sourcePath);
+            Path tgtLaudaDir = resolveLaudaDir(targetPath);
+            if (!Files.exists(tgtLaudaDir)) {
+                Files.createDirectories(tgtLaudaDir);
+            }
 
-        // 🟢 PASSO D: DEVOLVER O RODAPÉ
-        // Adiciona a linha fixa no final de tudo
-        tgtLines.add(fixedFooterRow);
+            Path srcTxt = srcLaudaDir.resolve(sourceRow + ".txt");
+            Path tgtTxt = tgtLaudaDir.resolve(sourceRow + ".txt");
 
-        // Salva o Final
-        Files.write(tgtCsv, tgtLines, StandardCharsets.UTF_8);
+            if (Files.exists(srcTxt)) {
+                Files.copy(srcTxt, tgtTxt, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.deleteIfExists(tgtTxt);
+            }
 
-        // --- 3. CÓPIA DA LAUDA ---
-        Path srcLaudaDir = resolveLaudaDir(sourcePath);
-        Path tgtLaudaDir = resolveLaudaDir(targetPath);
-        if (!Files.exists(tgtLaudaDir)) {
-            Files.createDirectories(tgtLaudaDir);
+            // --- 4. NOTIFICA AS DUAS PLANILHAS ---
+            // Final: quem estiver olhando vê a linha aparecer/atualizar.
+            // Prelim: o contador (coluna 1) subiu; RowInserted na mesma linha
+            // faz o frontend recarregar a linha com o valor novo
+            broadcaster.sendRowInserted(new SheetRowInsertedEvent(targetPath, sourceRow, user, tgt.version()));
+            broadcaster.sendRowInserted(new SheetRowInsertedEvent(sourcePath, sourceRow, user, src.version()));
         }
+    }
+
+    private List<CellPatch> applyCells(String relPath, List<CellPatch> changes, String username,
+            boolean lote) throws IOException {
+        Path file = resolveSheet(relPath);
+        // Serializa escritas na mesma planilha (evita perder atualização)
+        try (SheetLocks.Held lock = sheetLocks.write(file)) {
+            SheetModel sheet = sheetCache.getIfExists(file);
+            if (sheet == null) {
+                throw new NoSuchFileException(relPath);
+            }
 
-        Path srcTxt = srcLaudaDir.resolve(sourceRow + ".txt");
-        Path tgtTxt = tgtLaudaDir.resolve(sourceRow + ".txt");
+            // 1. Valida o lote inteiro antes de aplicar qualquer coisa
+            int rowCount = sheet.rowCount();
+            for (CellPatch c : changes) {
+                int fileRow = c.row() + 1; // Pula cabeçalho
+                if (fileRow < 1 || fileRow >= rowCount) {
+                    throw new IllegalArgumentException("Row out of bounds: " + c.row());
+                }
+                if (c.col() < 0) {
+                    throw new IllegalArgumentException("Col out of bounds: " + c.col());
+                }
+                checkLock(relPath, c, username);
+            }
+
+            // 2. Aplica na planilha em memória (expande a linha se preciso);
+            // o SheetCache grava o CSV depois
+            List<CellPatch> gravadas = new ArrayList<>(changes.size());
+            for (CellPatch c : changes) {
+                String valor = sheet.setCell(c.row() + 1, c.col(), c.value());
+                gravadas.add(new CellPatch(c.row(), c.col(), valor));
+            }
 
-        if (Files.exists(srcTxt)) {
-            Files.copy(srcTxt, tgtTxt, StandardCopyOption.REPLACE_EXISTING);
-        } else {
-            Files.deleteIfExists(tgtTxt);
+            // 3. Notifica (ainda sob o lock: eventos saem na ordem das versões)
+            if (lote) {
+                broadcaster.sendCellsChanged(new SheetCellsChangedEvent(relPath, gravadas, username, sheet.version()));
+            } else {
+                // Evento de célula única: mantém o formato que os clientes já conhecem
+                CellPatch c = gravadas.get(0);
+                broadcaster.sendCellChange(new SheetCellChangeEvent(relPath, c.row(), c.col(), c.value(), username,
+                        sheet.version()));
+            }
+            return gravadas;
         }
+    }
+
+    /**
+     * Fencing: a célula precisa estar travada por "username" (lock vivo). Com
+     * token, o lock ainda tem que ser o MESMO: vencido, liberado ou re-travado
+     * (mesmo pelo próprio usuário, noutra aba) tem outro id, e a escrita é de
+     * um lease morto. Roda sob o write lock da planilha, junto com o resto da
+     * validação.
+     */
+    private void checkLock(String relPath, CellPatch c, String username) {
+        CellLock cellLock = cellLockService.get(relPath, c.row(), c.col());
+        if (cellLock != null && !cellLock.owner.equals(username)) {
+            throw new IllegalStateException("Célula (" + (c.row() + 1) + ", " + (c.col() + 1)
+                    + ") em edição por: " + cellLock.owner);
+        }
+        if (cellLock == null) {
+            throw new IllegalStateException("Célula (" + (c.row() + 1) + ", " + (c.col() + 1)
+                    + ") sem lock: trave a célula antes de gravar");
+        }
+        if (c.token() != null && cellLock.leaseId != c.token()) {
+            throw new IllegalStateException("Célula (" + (c.row() + 1) + ", " + (c.col() + 1)
+                    + "): lock vencido ou substituído (token " + c.token() + ")");
+        }
+    }
 
-        System.out.println("[COPY] Sucesso. Linha " + sourceRow + " inserida. Rodapé empurrado para linha " + (tgtLines.size() - 1));
+    private static String[] emptyRow(int numCols) {
+        String[] cols = new String[Math.max(1, numCols)];
+        Arrays.fill(cols, "");
+        return cols;
     }
 
     // 👇 ADICIONE ESTE MÉTODO PRIVADO NA SUA CLASSE SheetService
@@ -0,0 +1,119 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gravação das planilhas em disco sem nunca deixar um CSV pela metade.
+ *
+ * O conteúdo vai para um arquivo temporário irmão, é forçado para o disco e
+ * só então substitui o original com um move atômico. Quem lê o CSV (ou um
+ * crash no meio da gravação) sempre vê a versão antiga inteira ou a nova
+ * inteira.
+ *
+ * mirrorpage.sheet.durability:
+ * <ul>
+ * <li>none — não força nada (o SO grava quando quiser)</li>
+ * <li>fdatasync — força só os dados do temporário (padrão)</li>
+ * <li>fsync — força dados + metadados e também o diretório após o
+ * rename</li>
+ * </ul>
+ */
+@Component
+public class SheetStorage {
+
+    private static final Logger log = LoggerFactory.getLogger(SheetStorage.class);
+
+    /**
+     * Sufixo dos temporários; os watchers e a árvore ignoram esses arquivos.
+     */
+    public static final String TEMP_SUFFIX = ".mirrortmp";
+
+    public enum Durability {
+        NONE, FDATASYNC, FSYNC
+    }
+
+    private final Durability durability;
+
+    public SheetStorage(@Value("${mirrorpage.sheet.durability:fdatasync}") String durability) {
+        this.durability = Durability.valueOf(durability.trim().toUpperCase(Locale.ROOT));
+        log.debug("durability={}", this.durability);
+    }
+
+    public static boolean isTempFile(Path file) {
+        Path name = file.getFileName();
+        return name != null && name.toString().endsWith(TEMP_SUFFIX);
+    }
+
+    /**
+     * Substitui o conteúdo do arquivo de forma atômica.
+     */
+    public void write(Path file, String content) throws IOException {
+        write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void write(Path file, byte[] content) throws IOException {
+        Path tmp = file.resolveSibling("." + file.getFileName() + TEMP_SUFFIX);
+        ByteBuffer buf = ByteBuffer.wrap(content);
+
+        try (FileChannel ch = FileChannel.open(tmp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            switch (durability) {
+                case FDATASYNC ->
+                    ch.force(false);
+                case FSYNC ->
+                    ch.force(true);
+                default -> {
+                }
+            }
+        }
+
+        try {
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Sistema de arquivos sem rename atômico: melhor esforço
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        if (durability == Durability.FSYNC) {
+            forceDirectory(file.getParent());
+        }
+    }
+
+    /*──────── Helpers ────────*/
+    private static void forceDirectory(Path dir) {
+        if (dir == null) {
+            return;
+        }
+        // Funciona no Linux; no Windows não dá para abrir diretório (ignora)
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException | UnsupportedOperationException e) {
+            // sem suporte: o rename já é durável o suficiente nesse SO
+        }
+    }
+}
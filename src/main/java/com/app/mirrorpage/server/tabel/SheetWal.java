@@ -0,0 +1,204 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.app.mirrorpage.server.tabel;
+
+import com.app.mirrorpage.fs.PathResolver;
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Write-ahead log das planilhas.
+ *
+ * Cada edição vira uma linha no log da planilha (append sequencial, com fsync
+ * opcional). O CSV só é reescrito na compactação, quando o log passa de
+ * mirrorpage.sheet.wal.max-bytes ou fica mais velho que
+ * mirrorpage.sheet.wal.max-age-ms. Na subida do servidor os logs que sobraram
+ * (crash) são reaplicados nos CSVs.
+ *
+ * Os logs ficam FORA do mirrorpage.root (mirrorpage.sheet.wal.dir) para não
+ * aparecerem na árvore nem dispararem os watchers.
+ */
+@Component
+public class SheetWal {
+
+    private static final Logger log = LoggerFactory.getLogger(SheetWal.class);
+
+    private static final String EXT = ".wal";
+
+    private final boolean enabled;
+    private final Path dir;
+    private final boolean fsync;
+    private final long maxBytes;
+    private final long maxAgeMs;
+    private final SheetStorage storage;
+
+    public SheetWal(PathResolver resolver, SheetStorage storage,
+            @Value("${mirrorpage.sheet.wal.enabled:true}") boolean enabled,
+            @Value("${mirrorpage.sheet.wal.dir:}") String dir,
+            @Value("${mirrorpage.sheet.wal.fsync:false}") boolean fsync,
+            @Value("${mirrorpage.sheet.wal.max-bytes:1048576}") long maxBytes,
+            @Value("${mirrorpage.sheet.wal.max-age-ms:10000}") long maxAgeMs) {
+        this.storage = storage;
+        this.enabled = enabled;
+        this.dir = (dir == null || dir.isBlank())
+                ? resolver.getRoot().resolveSibling("mirrorpage-wal")
+                : Paths.get(dir).toAbsolutePath().normalize();
+        this.fsync = fsync;
+        this.maxBytes = maxBytes;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Reaplica os logs que sobraram de uma execução anterior. Roda antes de
+     * qualquer planilha ser carregada pelo {@link SheetCache}.
+     */
+    @PostConstruct
+    public void recover() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(dir);
+        log.debug("dir={} fsync={}", dir, fsync);
+
+        // Agrupa "x.wal" e "x.wal.old" pelo nome base
+        Set<String> bases = new TreeSet<>();
+        try (Stream<Path> s = Files.list(dir)) {
+            s.map(p -> p.getFileName().toString())
+                    .filter(n -> n.endsWith(EXT) || n.endsWith(EXT + ".old"))
+                    .map(n -> n.endsWith(".old") ? n.substring(0, n.length() - 4) : n)
+                    .forEach(bases::add);
+        }
+
+        for (String base : bases) {
+            Path wal = dir.resolve(base);
+            try {
+                recoverOne(wal);
+            } catch (Exception e) {
+                log.warn("Falha ao recuperar {}: {}", wal, e.getMessage());
+                setAside(wal);
+                setAside(SheetJournal.oldFileOf(wal));
+            }
+        }
+    }
+
+    /**
+     * Abre o log de uma planilha recém-carregada. Retorna null se o WAL está
+     * desligado.
+     */
+    SheetJournal open(Path csv, long baseCrc) throws IOException {
+        if (!enabled) {
+            return null;
+        }
+        return SheetJournal.create(walFileFor(csv), csv, baseCrc, fsync);
+    }
+
+    /**
+     * Hora de reescrever o CSV e zerar o log?
+     */
+    boolean needsCompaction(SheetJournal j) {
+        if (j.hasPendingOld()) {
+            return true; // compactação anterior falhou
+        }
+        if (j.entries() == 0) {
+            return false;
+        }
+        return j.bytes() >= maxBytes
+                || System.currentTimeMillis() - j.firstAppendAt() >= maxAgeMs;
+    }
+
+    static long crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    /*──────── Helpers ────────*/
+    private Path walFileFor(Path csv) {
+        // Nome plano e legível + hash do caminho completo (evita colisão)
+        String plano = csv.getFileName().toString().replaceAll("[^A-Za-z0-9._-]", "_");
+        CRC32 h = new CRC32();
+        h.update(csv.toString().getBytes(StandardCharsets.UTF_8));
+        return dir.resolve(plano + "-" + Long.toHexString(h.getValue()) + EXT);
+    }
+
+    private void recoverOne(Path wal) throws IOException {
+        Path old = SheetJournal.oldFileOf(wal);
+        SheetJournal.Segment atual = Files.exists(wal) ? SheetJournal.read(wal) : null;
+        SheetJournal.Segment antigo = Files.exists(old) ? SheetJournal.read(old) : null;
+
+        Path csv = (atual != null ? atual.header() : antigo.header()).csv();
+        byte[] bytes = Files.exists(csv) ? Files.readAllBytes(csv) : new byte[0];
+
+        SheetModel sheet = new SheetModel(csv, linesOf(bytes));
+        long crc = crc(bytes);
+        int aplicadas = 0;
+
+        // O "*.old" só entra se o CSV ainda não foi regravado com ele
+        if (antigo != null && (atual == null || atual.header().baseCrc() != crc)) {
+            checkBase(antigo, crc, old);
+            aplicadas += replay(sheet, antigo.ops());
+            crc = crc(sheet.toText().getBytes(StandardCharsets.UTF_8));
+        }
+        if (atual != null) {
+            checkBase(atual, crc, wal);
+            aplicadas += replay(sheet, atual.ops());
+        }
+
+        if (aplicadas > 0) {
+            storage.write(csv, sheet.toText());
+            log.info("Recuperado {} ({} operações reaplicadas)", csv, aplicadas);
+        }
+        Files.deleteIfExists(old);
+        Files.deleteIfExists(wal);
+    }
+
+    private static void checkBase(SheetJournal.Segment seg, long crc, Path file) throws IOException {
+        if (seg.header().baseCrc() != crc) {
+            throw new IOException("CSV não corresponde à base do log " + file.getFileName()
+                    + " (foi alterado por fora?)");
+        }
+    }
+
+    private static int replay(SheetModel sheet, List<SheetOp> ops) {
+        for (SheetOp op : ops) {
+            sheet.apply(op);
+        }
+        return ops.size();
+    }
+
+    static List<String> linesOf(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8).lines().collect(Collectors.toList());
+    }
+
+    private void setAside(Path file) {
+        try {
+            if (Files.exists(file)) {
+                Files.move(file, file.resolveSibling(file.getFileName() + ".conflict"),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.warn("Não consegui separar {}: {}", file, e.getMessage());
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.app.mirrorpage.server.tree;
 
 import com.app.mirrorpage.fs.PathResolver;
+import com.app.mirrorpage.server.tabel.SheetStorage;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.stereotype.Service;
 
@@ -71,6 +72,11 @@ public class FolderWatcher implements InitializingBean {
                     if (relPath.toLowerCase().startsWith("laudas") || relPath.toLowerCase().startsWith("/laudas")) {
                         continue;
                     }
+
+                    // Ignora os temporários da gravação atômica das planilhas
+                    if (SheetStorage.isTempFile(fullPath)) {
+                        continue;
+                    }
                     
                     boolean isDir = Files.isDirectory(fullPath);
 
@@ -0,0 +1,244 @@
+package com.app.mirrorpage.server.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.app.mirrorpage.server.service.SheetEventBroadcaster;
+import com.app.mirrorpage.server.tabel.SheetCellChangeEvent;
+import com.app.mirrorpage.support.EmbeddedRedis;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+
+/**
+ * Dois nós ligados pela ponte num Redis de verdade. Cada nó tem o próprio
+ * brokerChannel (no lugar do simple broker fica uma lista do que chegou).
+ */
+class RedisBrokerBridgeTest {
+
+    private static final String PATH = "/Espelho/JORNAL.csv";
+    private static final String TOPIC = "/topic/sheet/_Espelho_JORNAL.csv";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static EmbeddedRedis redis;
+
+    private Node a;
+    private Node b;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redis.close();
+    }
+
+    @BeforeEach
+    void startNodes() {
+        String channel = EmbeddedRedis.newPrefix() + "ws";
+        a = new Node(channel);
+        b = new Node(channel);
+    }
+
+    @AfterEach
+    void stopNodes() {
+        a.stop();
+        b.stop();
+    }
+
+    @Test
+    void eventoDePlanilhaChegaAoOutroNoEmOrdemESemBuracos() throws Exception {
+        int n = 200;
+        for (int i = 0; i < n; i++) {
+            a.broadcaster.sendCellChange(new SheetCellChangeEvent(PATH, i, 0, "v" + i, "ana", "1"));
+        }
+
+        awaitTrue(() -> b.sheetFrames().size() == n);
+
+        List<Message<?>> recebidos = b.sheetFrames();
+        assertGapFree(recebidos);
+        for (int i = 0; i < n; i++) {
+            Message<?> m = recebidos.get(i);
+            assertEquals(i, payload(m).path("row").asInt());
+            assertEquals("SheetCellChangeEvent", nativeHeader(m, SheetEventBroadcaster.EVENT_HEADER));
+            assertNotNull(m.getHeaders().get(SheetEventBroadcaster.RELAYED_HEADER));
+        }
+        assertGapFree(a.sheetFrames());
+        // O replay do nó que recebeu também tem os frames
+        long ultimo = seq(recebidos.get(n - 1));
+        assertEquals(1, b.broadcaster.replay(PATH, ultimo - 1).frames().size());
+    }
+
+    @Test
+    void doisNosPublicandoAoMesmoTempoCadaUmVeTudoSemBuracos() throws Exception {
+        int n = 150;
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        pool.submit(() -> {
+            for (int i = 0; i < n; i++) {
+                a.broadcaster.sendCellChange(new SheetCellChangeEvent(PATH, i, 0, "a", "ana", "1"));
+            }
+        });
+        pool.submit(() -> {
+            for (int i = 0; i < n; i++) {
+                b.broadcaster.sendCellChange(new SheetCellChangeEvent(PATH, i, 1, "b", "bia", "1"));
+            }
+        });
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        awaitTrue(() -> a.sheetFrames().size() == 2 * n && b.sheetFrames().size() == 2 * n);
+
+        for (Node node : List.of(a, b)) {
+            List<Message<?>> frames = node.sheetFrames();
+            assertGapFree(frames);
+            // Os de cada origem na ordem em que saíram
+            List<Integer> daAna = new ArrayList<>();
+            List<Integer> daBia = new ArrayList<>();
+            for (Message<?> m : frames) {
+                JsonNode ev = payload(m);
+                (ev.path("user").asText().equals("ana") ? daAna : daBia).add(ev.path("row").asInt());
+            }
+            assertEquals(n, daAna.size());
+            assertEquals(n, daBia.size());
+            for (int i = 0; i < n; i++) {
+                assertEquals(i, daAna.get(i));
+                assertEquals(i, daBia.get(i));
+            }
+        }
+    }
+
+    @Test
+    void outrosTopicosAtravessamSemSeq() throws Exception {
+        a.template.convertAndSend("/topic/locks", Map.of("path", PATH, "owner", "ana"));
+
+        awaitTrue(() -> !b.framesOf("/topic/locks").isEmpty());
+
+        Message<?> m = b.framesOf("/topic/locks").get(0);
+        assertEquals("ana", payload(m).path("owner").asText());
+        assertNull(nativeHeader(m, SheetEventBroadcaster.SEQ_HEADER));
+        // Não volta para a ponte (nada de eco em A)
+        Thread.sleep(200);
+        assertEquals(1, a.framesOf("/topic/locks").size());
+    }
+
+    @Test
+    void mensagemPerdidaDeOutroNoInvalidaOReplay() throws Exception {
+        b.broadcaster.sendCellChange(new SheetCellChangeEvent(PATH, 0, 0, "x", "bia", "1"));
+        long visto = seq(b.sheetFrames().get(0));
+        assertFalse(b.broadcaster.replay(PATH, visto - 1).full());
+
+        // Outro nó publica n=1 e n=3: o 2 se perdeu no caminho
+        for (long n : new long[]{1, 3}) {
+            redis.template().convertAndSend(b.channel, MAPPER.writeValueAsString(Map.of(
+                    "node", "outro-no", "n", n, "dest", "/topic/tree",
+                    "body", Base64.getEncoder().encodeToString("{}".getBytes()))));
+        }
+        awaitTrue(() -> b.framesOf("/topic/tree").size() == 2);
+
+        b.broadcaster.sendCellChange(new SheetCellChangeEvent(PATH, 0, 0, "y", "bia", "1"));
+        long depois = seq(b.sheetFrames().get(1));
+        assertTrue(depois > visto + 1, "o cliente tem que ver o buraco");
+        assertTrue(b.broadcaster.replay(PATH, visto).full());
+    }
+
+    /*──────── Helpers ────────*/
+    private final class Node {
+
+        final String channel;
+        final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        final List<Message<?>> delivered = new CopyOnWriteArrayList<>();
+        final SimpMessagingTemplate template = new SimpMessagingTemplate(brokerChannel);
+        final SheetEventBroadcaster broadcaster = new SheetEventBroadcaster(template, 0, 64, "redis", 0);
+        final RedisBrokerBridge bridge;
+        final RedisMessageListenerContainer container;
+
+        Node(String channel) {
+            this.channel = channel;
+            // Como o brokerMessagingTemplate do Spring: payload vira JSON
+            template.setMessageConverter(new MappingJackson2MessageConverter());
+            bridge = new RedisBrokerBridge(redis.template(), MAPPER, brokerChannel, broadcaster, channel, 1000);
+            brokerChannel.addInterceptor(bridge);
+            brokerChannel.subscribe(delivered::add);
+            container = bridge.wsBridgeListenerContainer(redis.connectionFactory());
+            container.afterPropertiesSet();
+            container.start();
+        }
+
+        List<Message<?>> framesOf(String dest) {
+            List<Message<?>> out = new ArrayList<>();
+            for (Message<?> m : delivered) {
+                if (dest.equals(SimpMessageHeaderAccessor.getDestination(m.getHeaders()))) {
+                    out.add(m);
+                }
+            }
+            return out;
+        }
+
+        List<Message<?>> sheetFrames() {
+            return framesOf(TOPIC);
+        }
+
+        void stop() {
+            container.stop();
+            try {
+                container.destroy();
+            } catch (Exception e) {
+                // já parou
+            }
+            bridge.shutdown();
+        }
+    }
+
+    private static void assertGapFree(List<Message<?>> frames) {
+        for (int i = 1; i < frames.size(); i++) {
+            assertEquals(seq(frames.get(i - 1)) + 1, seq(frames.get(i)), "buraco no seq na posição " + i);
+        }
+    }
+
+    private static long seq(Message<?> m) {
+        return Long.parseLong(nativeHeader(m, SheetEventBroadcaster.SEQ_HEADER));
+    }
+
+    private static String nativeHeader(Message<?> m, String name) {
+        return SimpMessageHeaderAccessor.wrap(m).getFirstNativeHeader(name);
+    }
+
+    private static JsonNode payload(Message<?> m) throws IOException {
+        return MAPPER.readTree((byte[]) m.getPayload());
+    }
+
+    private static void awaitTrue(BooleanSupplier cond) throws InterruptedException {
+        long limite = System.currentTimeMillis() + 10_000;
+        while (!cond.getAsBoolean()) {
+            if (System.currentTimeMillis() > limite) {
+                throw new AssertionError("tempo esgotado esperando a ponte");
+            }
+            Thread.sleep(20);
+        }
+    }
+}
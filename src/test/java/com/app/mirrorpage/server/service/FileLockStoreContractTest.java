@@ -0,0 +1,147 @@
+package com.app.mirrorpage.server.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+/**
+ * O que todo {@link FileLockStore} tem que fazer igual, esteja em memória ou
+ * no Redis. Cada implementação estende esta classe e só diz como criar o
+ * store.
+ */
+abstract class FileLockStoreContractTest {
+
+    static final String PATH = "/Espelho/JORNAL.csv";
+
+    // TTL curto só para os testes de vencimento
+    static final long SHORT_TTL = 1;
+
+    /**
+     * Store novo e vazio, com o TTL dado.
+     */
+    abstract FileLockStore newStore(long ttlSeconds);
+
+    FileLockStore newStore() {
+        return newStore(30);
+    }
+
+    @Test
+    void tryLockConcedeENegaParaOutroUsuario() {
+        FileLockStore store = newStore();
+
+        assertTrue(store.tryLock(PATH, "ana"));
+        assertFalse(store.tryLock(PATH, "bia"));
+
+        assertEquals("ana", store.getOwner(PATH));
+        assertNotNull(store.getLeaseId(PATH));
+        assertNull(store.getOwner("/livre.csv"));
+        assertNull(store.getLeaseId("/livre.csv"));
+    }
+
+    @Test
+    void tryLockDoMesmoDonoMantemOLease() {
+        FileLockStore store = newStore();
+        store.tryLock(PATH, "ana");
+        Long antes = store.getLeaseId(PATH);
+
+        assertTrue(store.tryLock(PATH, "ana"));
+
+        assertEquals(antes, store.getLeaseId(PATH));
+    }
+
+    @Test
+    void unlockSoDoDono() {
+        FileLockStore store = newStore();
+        store.tryLock(PATH, "ana");
+
+        assertFalse(store.unlock(PATH, "bia"));
+        assertEquals("ana", store.getOwner(PATH));
+
+        assertTrue(store.unlock(PATH, "ana"));
+        assertNull(store.getOwner(PATH));
+        assertFalse(store.unlock(PATH, "ana"));
+        assertTrue(store.tryLock(PATH, "bia"));
+    }
+
+    @Test
+    void renewSoOsIdsPedidosEDoDono() {
+        FileLockStore store = newStore();
+        store.tryLock(PATH, "ana");
+        store.tryLock("/outra.csv", "ana");
+        store.tryLock("/terceira.csv", "bia");
+        long a = store.getLeaseId(PATH);
+        long b = store.getLeaseId("/outra.csv");
+        long c = store.getLeaseId("/terceira.csv");
+
+        assertEquals(Set.of(a), store.renew("ana", List.of(a, c, 999L)));
+        assertEquals(Set.of(a, b), store.renew("ana", List.of(a, b)));
+        // Sem ids não renova nada
+        assertTrue(store.renew("ana", List.of()).isEmpty());
+        assertTrue(store.renew("ana", null).isEmpty());
+        assertTrue(store.renew("ninguem", List.of(a)).isEmpty());
+    }
+
+    @Test
+    void lockVencidoContaComoLivre() throws InterruptedException {
+        FileLockStore store = newStore(SHORT_TTL);
+        store.tryLock(PATH, "ana");
+        long antigo = store.getLeaseId(PATH);
+
+        esperaVencer();
+
+        assertNull(store.getOwner(PATH));
+        assertNull(store.getLeaseId(PATH));
+        assertTrue(store.renew("ana", List.of(antigo)).isEmpty());
+
+        assertTrue(store.tryLock(PATH, "bia"));
+        assertEquals("bia", store.getOwner(PATH));
+        assertTrue(store.getLeaseId(PATH) > antigo);
+    }
+
+    @Test
+    void relockDepoisDeVencerGanhaLeaseNovo() throws InterruptedException {
+        FileLockStore store = newStore(SHORT_TTL);
+        store.tryLock(PATH, "ana");
+        long antigo = store.getLeaseId(PATH);
+
+        esperaVencer();
+
+        assertTrue(store.tryLock(PATH, "ana"));
+        assertNotEquals(antigo, store.getLeaseId(PATH));
+    }
+
+    @Test
+    void sweepRemoveSoOsVencidos() throws InterruptedException {
+        FileLockStore store = newStore(SHORT_TTL);
+        store.tryLock(PATH, "ana");
+        store.tryLock("/outra.csv", "bia");
+
+        esperaVencer();
+        store.tryLock("/outra.csv", "bia"); // vencido, reconcedido
+
+        LeaseStats antes = store.stats();
+        assertEquals(1, antes.live());
+        assertEquals(1, antes.expired());
+
+        Map<String, String> removidos = store.sweepExpired();
+
+        assertEquals(Map.of(PATH, "ana"), removidos);
+        assertEquals("bia", store.getOwner("/outra.csv"));
+        LeaseStats depois = store.stats();
+        assertEquals(0, depois.expired());
+        assertEquals(1, depois.sweptTotal());
+        assertTrue(store.sweepExpired().isEmpty());
+    }
+
+    static void esperaVencer() throws InterruptedException {
+        Thread.sleep(SHORT_TTL * 1000 + 100);
+    }
+}
@@ -0,0 +1,9 @@
+package com.app.mirrorpage.server.service;
+
+class InMemoryFileLockStoreTest extends FileLockStoreContractTest {
+
+    @Override
+    FileLockStore newStore(long ttlSeconds) {
+        return new InMemoryFileLockStore(new LeaseIds(), ttlSeconds);
+    }
+}
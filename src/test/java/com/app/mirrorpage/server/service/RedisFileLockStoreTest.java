@@ -0,0 +1,26 @@
+package com.app.mirrorpage.server.service;
+
+import com.app.mirrorpage.support.EmbeddedRedis;
+import java.io.IOException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+
+class RedisFileLockStoreTest extends FileLockStoreContractTest {
+
+    private static EmbeddedRedis redis;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redis.close();
+    }
+
+    @Override
+    FileLockStore newStore(long ttlSeconds) {
+        return new RedisFileLockStore(redis.template(), EmbeddedRedis.newPrefix(), ttlSeconds);
+    }
+}
@@ -0,0 +1,64 @@
+package com.app.mirrorpage.server.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.app.mirrorpage.server.tabel.SheetCellChangeEvent;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+/**
+ * Tópico descartado por ficar parado: o replay manda recarregar e a
+ * numeração nova nunca emenda na antiga.
+ */
+class SheetEventBroadcasterTest {
+
+    private static final String PATH = "/Espelho/JORNAL.csv";
+
+    private final List<Message<?>> enviados = new CopyOnWriteArrayList<>();
+    private final SimpMessagingTemplate template = new SimpMessagingTemplate((m, t) -> enviados.add(m));
+
+    @Test
+    void topicoParadoSaiEOSeqNovoDeixaBuraco() throws InterruptedException {
+        SheetEventBroadcaster b = new SheetEventBroadcaster(template, 0, 64, "simple", 1);
+        try {
+            b.sendCellChange(new SheetCellChangeEvent(PATH, 0, 0, "a", "ana", "1"));
+            long antes = seq(enviados.get(0));
+            assertFalse(b.replay(PATH, antes - 1).full());
+
+            Thread.sleep(5);
+            b.evictIdle();
+
+            assertTrue(b.replay(PATH, antes).full());
+            b.sendCellChange(new SheetCellChangeEvent(PATH, 0, 0, "b", "ana", "2"));
+            long depois = seq(enviados.get(1));
+            assertTrue(depois > antes + 1, "o cliente tem que ver o buraco");
+        } finally {
+            b.shutdown();
+        }
+    }
+
+    @Test
+    void topicoEmUsoFica() {
+        SheetEventBroadcaster b = new SheetEventBroadcaster(template, 0, 64, "simple", 60_000);
+        try {
+            b.sendCellChange(new SheetCellChangeEvent(PATH, 0, 0, "a", "ana", "1"));
+            b.evictIdle();
+            b.sendCellChange(new SheetCellChangeEvent(PATH, 0, 0, "b", "ana", "2"));
+
+            assertEquals(seq(enviados.get(0)) + 1, seq(enviados.get(1)));
+            assertEquals(1, b.replay(PATH, seq(enviados.get(0))).frames().size());
+        } finally {
+            b.shutdown();
+        }
+    }
+
+    private static long seq(Message<?> m) {
+        return Long.parseLong(SimpMessageHeaderAccessor.wrap(m).getFirstNativeHeader(SheetEventBroadcaster.SEQ_HEADER));
+    }
+}
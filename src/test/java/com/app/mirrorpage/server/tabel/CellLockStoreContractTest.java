@@ -0,0 +1,321 @@
+package com.app.mirrorpage.server.tabel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.app.mirrorpage.server.service.LeaseStats;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+/**
+ * O que todo {@link CellLockStore} tem que fazer igual, esteja em memória ou
+ * no Redis. Cada implementação estende esta classe e só diz como criar o
+ * store.
+ */
+abstract class CellLockStoreContractTest {
+
+    static final String PATH = "/Espelho/JORNAL.csv";
+
+    // TTL curto só para os testes de vencimento
+    static final long SHORT_TTL = 1;
+
+    /**
+     * Store novo e vazio, com o TTL dado.
+     */
+    abstract CellLockStore newStore(long ttlSeconds);
+
+    CellLockStore newStore() {
+        return newStore(30);
+    }
+
+    @Test
+    void acquireConcedeENegaParaOutroUsuario() {
+        CellLockStore store = newStore();
+
+        CellLockStore.Acquired ana = store.acquire(PATH, 3, 2, "ana");
+        assertTrue(ana.granted());
+        assertFalse(ana.renewed());
+        assertEquals("ana", ana.lock().owner);
+
+        CellLockStore.Acquired bia = store.acquire(PATH, 3, 2, "bia");
+        assertFalse(bia.granted());
+        assertNull(bia.lock());
+
+        CellLock atual = store.get(PATH, 3, 2);
+        assertEquals("ana", atual.owner);
+        assertEquals(ana.lock().leaseId, atual.leaseId);
+    }
+
+    @Test
+    void reacquireDoMesmoDonoRenovaComOMesmoLease() {
+        CellLockStore store = newStore();
+
+        CellLock primeiro = store.acquire(PATH, 0, 0, "ana").lock();
+        CellLockStore.Acquired segundo = store.acquire(PATH, 0, 0, "ana");
+
+        assertTrue(segundo.renewed());
+        assertEquals(primeiro.leaseId, segundo.lock().leaseId);
+    }
+
+    @Test
+    void celulasDiferentesTemLeasesDiferentes() {
+        CellLockStore store = newStore();
+
+        long a = store.acquire(PATH, 0, 0, "ana").lock().leaseId;
+        long b = store.acquire(PATH, 0, 1, "ana").lock().leaseId;
+
+        assertNotEquals(a, b);
+    }
+
+    @Test
+    void releaseSoDoDono() {
+        CellLockStore store = newStore();
+        store.acquire(PATH, 1, 1, "ana");
+
+        assertNull(store.release(PATH, 1, 1, "bia"));
+        assertNotNull(store.get(PATH, 1, 1));
+
+        CellLock liberado = store.release(PATH, 1, 1, "ana");
+        assertEquals("ana", liberado.owner);
+        assertNull(store.get(PATH, 1, 1));
+        assertTrue(store.acquire(PATH, 1, 1, "bia").granted());
+    }
+
+    @Test
+    void locksOfEmOrdemDeLinha() {
+        CellLockStore store = newStore();
+        store.acquire(PATH, 5, 0, "ana");
+        store.acquire(PATH, 1, 3, "bia");
+        store.acquire("/outra.csv", 0, 0, "ana");
+
+        List<CellLock> locks = store.locksOf(PATH);
+
+        assertEquals(2, locks.size());
+        assertEquals(1, locks.get(0).row);
+        assertEquals(5, locks.get(1).row);
+        assertTrue(store.locksOf("/nenhuma.csv").isEmpty());
+    }
+
+    @Test
+    void findForeignLockIgnoraOsDoProprioUsuario() {
+        CellLockStore store = newStore();
+        store.acquire(PATH, 2, 0, "ana");
+        store.acquire(PATH, 4, 3, "bia");
+        store.acquire(PATH, 4, 1, "bia");
+
+        assertNull(store.findForeignLock(PATH, 0, 3, "ana"));
+        CellLock outro = store.findForeignLock(PATH, 0, 9, "ana");
+        assertEquals(4, outro.row);
+        assertEquals(1, outro.col);
+        assertEquals(2, store.findForeignLock(PATH, 0, 9, "bia").row);
+    }
+
+    @Test
+    void acquireRangeTudoOuNada() {
+        CellLockStore store = newStore();
+        store.acquire(PATH, 1, 1, "bia");
+
+        CellLockStore.BatchLock negado = store.acquireRange(PATH, 0, 2, 0, 2, "ana");
+        assertFalse(negado.ok());
+        assertTrue(negado.granted().isEmpty());
+        assertEquals(List.of(new CellLockConflict(1, 1, "bia")), negado.conflicts());
+        // Nada do bloco ficou com "ana"
+        assertNull(store.get(PATH, 0, 0));
+
+        CellLockStore.BatchLock ok = store.acquireRange(PATH, 0, 1, 2, 3, "ana");
+        assertTrue(ok.ok());
+        assertEquals(4, ok.granted().size());
+        assertEquals("ana", store.get(PATH, 1, 3).owner);
+    }
+
+    @Test
+    void acquireRangeRenovaOsProprios() {
+        CellLockStore store = newStore();
+        long antes = store.acquire(PATH, 0, 0, "ana").lock().leaseId;
+
+        CellLockStore.BatchLock ok = store.acquireRange(PATH, 0, 0, 0, 1, "ana");
+
+        assertTrue(ok.ok());
+        assertEquals(antes, store.get(PATH, 0, 0).leaseId);
+    }
+
+    @Test
+    void releaseRangeSoLiberaOsDoUsuario() {
+        CellLockStore store = newStore();
+        store.acquire(PATH, 0, 0, "ana");
+        store.acquire(PATH, 0, 1, "bia");
+        store.acquire(PATH, 1, 0, "ana");
+        store.acquire(PATH, 5, 0, "ana");
+
+        List<CellLock> liberados = store.releaseRange(PATH, 0, 1, 0, 1, "ana");
+
+        assertEquals(2, liberados.size());
+        assertNull(store.get(PATH, 0, 0));
+        assertNull(store.get(PATH, 1, 0));
+        assertEquals("bia", store.get(PATH, 0, 1).owner);
+        assertEquals("ana", store.get(PATH, 5, 0).owner);
+    }
+
+    @Test
+    void shiftParaBaixoMantemOLease() {
+        CellLockStore store = newStore();
+        long acima = store.acquire(PATH, 1, 0, "ana").lock().leaseId;
+        long abaixo = store.acquire(PATH, 4, 2, "bia").lock().leaseId;
+
+        store.shiftLocks(PATH, 3, 2); // duas linhas inseridas antes da 3
+
+        assertEquals(acima, store.get(PATH, 1, 0).leaseId);
+        assertNull(store.get(PATH, 4, 2));
+        CellLock movido = store.get(PATH, 6, 2);
+        assertEquals("bia", movido.owner);
+        assertEquals(abaixo, movido.leaseId);
+    }
+
+    @Test
+    void consultasPorIntervaloSeguemOShift() {
+        CellLockStore store = newStore();
+        store.acquire(PATH, 2, 10, "bia");
+        store.acquire(PATH, 2, 3, "bia");
+        store.acquire(PATH, 7, 0, "bia");
+
+        store.shiftLocks(PATH, 2, 3); // 2 -> 5, 7 -> 10
+
+        assertNull(store.findForeignLock(PATH, 0, 4, "ana"));
+        CellLock movido = store.findForeignLock(PATH, 5, 9, "ana");
+        assertEquals(5, movido.row);
+        assertEquals(3, movido.col);
+        assertEquals(10, store.findForeignLock(PATH, 6, 10, "ana").row);
+
+        assertTrue(store.acquireRange(PATH, 2, 2, 0, 20, "ana").ok());
+        assertFalse(store.acquireRange(PATH, 5, 5, 3, 3, "ana").ok());
+        assertEquals(2, store.releaseRange(PATH, 5, 5, 0, 20, "bia").size());
+        assertNull(store.findForeignLock(PATH, 0, 9, "ana"));
+    }
+
+    @Test
+    void shiftParaCimaDescartaAsLinhasRemovidas() {
+        CellLockStore store = newStore();
+        store.acquire(PATH, 2, 0, "ana");
+        store.acquire(PATH, 3, 0, "ana");
+        long depois = store.acquire(PATH, 5, 1, "bia").lock().leaseId;
+
+        store.shiftLocks(PATH, 2, -2); // linhas 2 e 3 removidas
+
+        assertNull(store.get(PATH, 2, 0)); // a 4 (livre) virou 2
+        assertEquals(depois, store.get(PATH, 3, 1).leaseId);
+        assertEquals(1, store.locksOf(PATH).size());
+        assertTrue(store.releaseAll("ana").isEmpty());
+    }
+
+    @Test
+    void releaseAllLiberaTodasAsPlanilhasDoUsuario() {
+        CellLockStore store = newStore();
+        store.acquire(PATH, 0, 0, "ana");
+        store.acquire("/outra.csv", 1, 1, "ana");
+        store.acquire(PATH, 0, 1, "bia");
+
+        List<CellLock> liberados = store.releaseAll("ana");
+
+        assertEquals(2, liberados.size());
+        assertTrue(store.locksOf("/outra.csv").isEmpty());
+        assertEquals("bia", store.get(PATH, 0, 1).owner);
+        assertTrue(store.releaseAll("ninguem").isEmpty());
+    }
+
+    @Test
+    void renewSoOsIdsPedidosEDoDono() {
+        CellLockStore store = newStore();
+        long a = store.acquire(PATH, 0, 0, "ana").lock().leaseId;
+        long b = store.acquire(PATH, 0, 1, "ana").lock().leaseId;
+        long c = store.acquire(PATH, 0, 2, "bia").lock().leaseId;
+
+        assertEquals(Set.of(a), store.renew("ana", List.of(a, c, 999L)));
+        assertEquals(Set.of(a, b), store.renew("ana", List.of(a, b)));
+        // Sem ids não renova nada (nem os leases de outra aba do usuário)
+        assertTrue(store.renew("ana", List.of()).isEmpty());
+        assertTrue(store.renew("ana", null).isEmpty());
+        assertTrue(store.renew("ninguem", List.of(a)).isEmpty());
+    }
+
+    @Test
+    void heartbeatDeUmaAbaNaoSeguraOsLeasesDaOutra() throws InterruptedException {
+        CellLockStore store = newStore(SHORT_TTL);
+        long daAbaViva = store.acquire(PATH, 0, 0, "ana").lock().leaseId;
+        store.acquire(PATH, 0, 1, "ana"); // aba que caiu
+
+        Thread.sleep(SHORT_TTL * 600);
+        assertEquals(Set.of(daAbaViva), store.renew("ana", List.of(daAbaViva)));
+        assertTrue(store.renew("ana", List.of()).isEmpty());
+        Thread.sleep(SHORT_TTL * 600);
+
+        assertEquals(daAbaViva, store.get(PATH, 0, 0).leaseId);
+        assertNull(store.get(PATH, 0, 1));
+    }
+
+    @Test
+    void lockVencidoContaComoLivre() throws InterruptedException {
+        CellLockStore store = newStore(SHORT_TTL);
+        long antigo = store.acquire(PATH, 0, 0, "ana").lock().leaseId;
+
+        esperaVencer();
+
+        assertNull(store.get(PATH, 0, 0));
+        assertTrue(store.locksOf(PATH).isEmpty());
+        assertNull(store.findForeignLock(PATH, 0, 0, "bia"));
+        assertTrue(store.renew("ana", List.of(antigo)).isEmpty());
+
+        CellLockStore.Acquired bia = store.acquire(PATH, 0, 0, "bia");
+        assertTrue(bia.granted());
+        assertNotEquals(antigo, bia.lock().leaseId);
+    }
+
+    @Test
+    void reacquireDepoisDeVencerGanhaLeaseNovo() throws InterruptedException {
+        CellLockStore store = newStore(SHORT_TTL);
+        long antigo = store.acquire(PATH, 0, 0, "ana").lock().leaseId;
+        long antigoBloco = store.acquireRange(PATH, 1, 1, 0, 0, "ana").granted().get(0).leaseId;
+
+        esperaVencer();
+
+        CellLockStore.Acquired denovo = store.acquire(PATH, 0, 0, "ana");
+        assertTrue(denovo.granted());
+        assertFalse(denovo.renewed());
+        assertNotEquals(antigo, denovo.lock().leaseId);
+
+        CellLock bloco = store.acquireRange(PATH, 1, 1, 0, 0, "ana").granted().get(0);
+        assertNotEquals(antigoBloco, bloco.leaseId);
+    }
+
+    @Test
+    void sweepRemoveSoOsVencidos() throws InterruptedException {
+        CellLockStore store = newStore(SHORT_TTL);
+        store.acquire(PATH, 0, 0, "ana");
+        store.acquire(PATH, 0, 1, "bia");
+
+        esperaVencer();
+        long vivo = store.acquire(PATH, 0, 1, "bia").lock().leaseId; // vencido, reconcedido
+
+        LeaseStats antes = store.stats();
+        assertEquals(1, antes.live());
+        assertEquals(1, antes.expired());
+
+        List<CellLock> removidos = store.sweepExpired();
+
+        assertEquals(1, removidos.size());
+        assertEquals("ana", removidos.get(0).owner);
+        assertEquals(vivo, store.get(PATH, 0, 1).leaseId);
+        LeaseStats depois = store.stats();
+        assertEquals(0, depois.expired());
+        assertEquals(1, depois.sweptTotal());
+        assertTrue(store.sweepExpired().isEmpty());
+    }
+
+    static void esperaVencer() throws InterruptedException {
+        Thread.sleep(SHORT_TTL * 1000 + 100);
+    }
+}
@@ -0,0 +1,62 @@
+package com.app.mirrorpage.server.tabel;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link CsvRowCodec} tem que dar exatamente o mesmo resultado que o código
+ * antigo: split(";", -1) e String.join(";", ...).
+ */
+class CsvRowCodecTest {
+
+    private static final List<String> LINHAS = List.of(
+            "PG;CNT;RETRANCA;APRESENTADOR;REPORTER;EDITOR;IMAGEM;TIPO;CABECA;VT;TOTAL;OBS;STATUS;PREVISTO",
+            "1;2;ABERTURA;ANA;;;;VT;00:15;01:30;01:45;;OK;01:45",
+            "1;;curta",
+            "",
+            ";",
+            ";;;",
+            "2;;vazias no fim;;;;",
+            ";começa vazia",
+            "sem separador",
+            "aspas \"não\" são especiais;barra \\ também;tab\tfica;ção é UTF-8");
+
+    @Test
+    void splitIgualAoSplitComLimiteNegativo() {
+        for (String linha : LINHAS) {
+            assertArrayEquals(linha.split(";", -1), CsvRowCodec.split(linha), "linha: '" + linha + "'");
+        }
+    }
+
+    @Test
+    void columnCountIgualAoTamanhoDoSplit() {
+        for (String linha : LINHAS) {
+            assertEquals(linha.split(";", -1).length, CsvRowCodec.columnCount(linha), "linha: '" + linha + "'");
+        }
+    }
+
+    @Test
+    void joinIgualAoStringJoin() {
+        for (String linha : LINHAS) {
+            String[] cols = linha.split(";", -1);
+            assertEquals(String.join(";", cols), CsvRowCodec.join(cols), "linha: '" + linha + "'");
+        }
+    }
+
+    @Test
+    void idaEVoltaPreservaALinha() {
+        for (String linha : LINHAS) {
+            assertEquals(linha, CsvRowCodec.join(CsvRowCodec.split(linha)));
+        }
+    }
+
+    @Test
+    void appendToAcrescentaSemApagarOQueJaExiste() {
+        StringBuilder sb = new StringBuilder("x\n");
+        CsvRowCodec.appendTo(sb, new String[]{"a", "", "c", ""}).append('\n');
+        assertEquals("x\na;;c;\n", sb.toString());
+    }
+}
@@ -0,0 +1,11 @@
+package com.app.mirrorpage.server.tabel;
+
+import com.app.mirrorpage.server.service.LeaseIds;
+
+class InMemoryCellLockStoreTest extends CellLockStoreContractTest {
+
+    @Override
+    CellLockStore newStore(long ttlSeconds) {
+        return new InMemoryCellLockStore(new LeaseIds(), ttlSeconds);
+    }
+}
@@ -0,0 +1,26 @@
+package com.app.mirrorpage.server.tabel;
+
+import com.app.mirrorpage.support.EmbeddedRedis;
+import java.io.IOException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+
+class RedisCellLockStoreTest extends CellLockStoreContractTest {
+
+    private static EmbeddedRedis redis;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redis.close();
+    }
+
+    @Override
+    CellLockStore newStore(long ttlSeconds) {
+        return new RedisCellLockStore(redis.template(), EmbeddedRedis.newPrefix(), ttlSeconds);
+    }
+}
@@ -0,0 +1,81 @@
+package com.app.mirrorpage.server.tabel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.app.mirrorpage.fs.PathResolver;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Recuperação pelo WAL: o que foi aplicado na memória volta depois de um
+ * crash, e uma operação recusada não entra no log.
+ */
+class SheetWalTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void operacaoInvalidaNaoEntraNoLogEORecoverTrazAsBoas() throws IOException {
+        Path root = Files.createDirectories(tmp.resolve("root"));
+        Path csv = root.resolve("JORNAL.csv");
+        Files.writeString(csv, "PG;RETRANCA\n1;ABERTURA\n", StandardCharsets.UTF_8);
+        byte[] base = Files.readAllBytes(csv);
+
+        SheetWal wal = newWal(root);
+        SheetModel sheet = new SheetModel(csv, SheetWal.linesOf(base));
+        sheet.attachJournal(wal.open(csv, SheetWal.crc(base)));
+
+        sheet.setCell(1, 1, "ESCALADA");
+        assertThrows(IndexOutOfBoundsException.class, () -> sheet.setCell(9, 0, "x"));
+        assertThrows(IndexOutOfBoundsException.class, () -> sheet.setRow(5, new String[]{"a"}));
+        assertThrows(IndexOutOfBoundsException.class, () -> sheet.insertRow(3, new String[]{"a"}));
+        assertThrows(IndexOutOfBoundsException.class, () -> sheet.moveRow(0, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> sheet.renumber(1, 4));
+        sheet.addRow(new String[]{"", "ENCERRAMENTO"});
+        sheet.renumber(1, 2);
+        assertEquals(3, sheet.journal().entries());
+
+        // "Crash": o CSV nunca foi regravado, só o log tem as edições
+        newWal(root).recover();
+
+        assertEquals("PG;RETRANCA\n1;ESCALADA\n2;ENCERRAMENTO\n",
+                Files.readString(csv, StandardCharsets.UTF_8).replace(System.lineSeparator(), "\n"));
+        try (Stream<Path> s = Files.list(tmp.resolve("wal"))) {
+            assertFalse(s.anyMatch(p -> p.toString().endsWith(".conflict")));
+        }
+    }
+
+    @Test
+    void renumberEmLinhaVaziaNaoQuebraOReplay() throws IOException {
+        Path root = Files.createDirectories(tmp.resolve("root"));
+        Path csv = root.resolve("VAZIA.csv");
+        Files.writeString(csv, "PG;RETRANCA\n9;A\n", StandardCharsets.UTF_8);
+        byte[] base = Files.readAllBytes(csv);
+
+        SheetWal wal = newWal(root);
+        SheetModel sheet = new SheetModel(csv, SheetWal.linesOf(base));
+        sheet.attachJournal(wal.open(csv, SheetWal.crc(base)));
+
+        sheet.setRow(1, new String[0]);
+        sheet.renumber(1, 1);
+        String esperado = sheet.toText();
+
+        newWal(root).recover();
+
+        assertEquals(esperado, Files.readString(csv, StandardCharsets.UTF_8));
+    }
+
+    private SheetWal newWal(Path root) throws IOException {
+        Files.createDirectories(tmp.resolve("wal"));
+        return new SheetWal(new PathResolver(root.toString()), new SheetStorage("none"),
+                true, tmp.resolve("wal").toString(), false, 1 << 20, 60_000);
+    }
+}
@@ -0,0 +1,57 @@
+package com.app.mirrorpage.support;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.UUID;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+/**
+ * Redis de verdade (processo embutido, com Lua) numa porta livre, para os
+ * testes dos stores e da ponte entre nós. Um por classe de teste: cada teste
+ * usa um prefixo próprio ({@link #newPrefix()}) em vez de limpar o banco.
+ */
+public final class EmbeddedRedis implements AutoCloseable {
+
+    private final RedisServer server;
+    private final LettuceConnectionFactory connectionFactory;
+    private final StringRedisTemplate template;
+
+    private EmbeddedRedis(int port) throws IOException {
+        server = new RedisServer(port);
+        server.start();
+        connectionFactory = new LettuceConnectionFactory("localhost", port);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        template = new StringRedisTemplate(connectionFactory);
+    }
+
+    public static EmbeddedRedis start() throws IOException {
+        return new EmbeddedRedis(freePort());
+    }
+
+    public StringRedisTemplate template() {
+        return template;
+    }
+
+    public LettuceConnectionFactory connectionFactory() {
+        return connectionFactory;
+    }
+
+    public static String newPrefix() {
+        return "test:" + UUID.randomUUID() + ":";
+    }
+
+    @Override
+    public void close() throws IOException {
+        connectionFactory.destroy();
+        server.stop();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+}